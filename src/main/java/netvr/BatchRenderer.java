@@ -0,0 +1,409 @@
+package netvr;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws {@link Vis} from vertex buffer objects, one buffer per grid cell and primitive mode,
+ * instead of immediate mode per Vis.  Per frame, feed the visible Vis to {@link #accept}
+ * between {@link #begin} and {@link #end}; each touched cell is then drawn with a single
+ * glDrawElements (indexed triangles), glDrawArrays (lines) or glMultiDrawArrays (strips).
+ * Batches are drawn by {@link Vis#layer}, areas before lines within a layer.
+ * <p>
+ * Vis are assigned to the cell of their bounds' center the first time they are seen, which
+ * marks that cell for re-upload.  Each batch keeps a buffer per {@link Lod} level, filled
+ * when the level selected in {@link #begin} is first drawn.  A Vis whose colors changed is
+ * passed to {@link #changed}; the next time its batch is drawn, only the vertices of changed
+ * members are rewritten, one glBufferSubData per run of them less than {@link #GAP} vertices
+ * apart.  Only needs a GL2 context, so it also runs on an offscreen (e.g. Mesa software)
+ * drawable.  Not thread safe; call from the GL thread.
+ * <p>
+ * Vertices are stored relative to their cell's corner (a floating origin), so they keep full
+ * float precision at any longitude.  Each frame the camera position, in double precision, is
+ * subtracted from every visible cell's corner once, and each batch is drawn with that cell's
+ * modelview matrix.
+ */
+public class BatchRenderer {
+
+    /** floats per vertex: x, y, r, g, b */
+    public static final int STRIDE = 5;
+    /** unchanged vertices rewritten rather than starting another partial update */
+    static final int GAP = 64;
+
+    private final float cellSize;
+    private final LongIntHashMap cellIndex = new LongIntHashMap();
+    private final List<Cell> cells = new ArrayList<>();
+    private final IntArrayList visible = new IntArrayList();
+    private final float[] tmp = new float[4];
+    private int frame, level, maxOrder;
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+    private float[] modelview = IDENTITY;
+    private double scale = 1, originX, originY;
+
+    /** per-frame counters: full uploads, partial updates, and bytes sent by both */
+    int cellsDrawn, drawCalls, uploads, updates;
+    long uploadedBytes;
+    /** vertices of partial updates */
+    private FloatBuffer scratch = Buffers.newDirectFloatBuffer(1024);
+
+    public BatchRenderer(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /** @param level {@link Lod} level to draw this frame, in world coordinates */
+    public void begin(int level) {
+        begin(level, IDENTITY, 1, 0, 0);
+    }
+
+    /**
+     * @param level     {@link Lod} level to draw this frame
+     * @param modelview camera relative (column-major), for world coordinates (x - originX, y - originY) * scale
+     */
+    public void begin(int level, float[] modelview, double scale, double originX, double originY) {
+        this.level = level;
+        this.modelview = modelview;
+        this.scale = scale;
+        this.originX = originX;
+        this.originY = originY;
+        frame++;
+        visible.clear();
+        cellsDrawn = drawCalls = uploads = updates = 0;
+        uploadedBytes = 0;
+    }
+
+    public void accept(Vis v) {
+        int c = v.cell;
+        if (c < 0)
+            c = add(v);
+        Cell cc = cells.get(c);
+        if (cc.frame != frame) {
+            cc.frame = frame;
+            cc.place();
+            visible.add(c);
+        }
+    }
+
+    private int add(Vis v) {
+        v.bounds(tmp);
+        long key = key((int) Math.floor((tmp[0] + tmp[2]) / 2 / cellSize),
+                       (int) Math.floor((tmp[1] + tmp[3]) / 2 / cellSize));
+        int c = cellIndex.getOrDefault(key, -1);
+        if (c < 0) {
+            c = cells.size();
+            cells.add(new Cell((int) (key >> 32), (int) key));
+            cellIndex.put(key, c);
+        }
+        cells.get(c).batch(v.mode(), v.layer()).add(v);
+        return v.cell = c;
+    }
+
+    static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    public void end(GL2 gl) {
+        gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+
+        for (int order = 0; order <= maxOrder; order++) {
+            for (int i = 0, n = visible.size(); i < n; i++) {
+                final Cell c = cells.get(visible.get(i));
+                for (Batch b : c.batches) {
+                    if (b.order == order) {
+                        gl.glLoadMatrixf(c.matrix, 0);
+                        b.slots[level].draw(gl);
+                    }
+                }
+            }
+        }
+
+        gl.glPopMatrix();
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+        gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+        gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+        cellsDrawn = visible.size();
+    }
+
+    /**
+     * rewrites this Vis' vertices when its batch is next drawn, e.g. after it changed color;
+     * its number of vertices must be the same.  Vis not drawn yet are written in full anyway.
+     */
+    public void changed(Vis v) {
+        if (v.cell < 0)
+            return;
+        final Batch b = cells.get(v.cell).find(v.mode(), v.layer());
+        if (b != null)
+            for (Batch.Slot l : b.slots)
+                l.changed(v.member);
+    }
+
+    /** re-uploads every batch when next drawn, e.g. after the Vis changed color */
+    public void invalidate() {
+        for (Cell c : cells)
+            for (Batch b : c.batches)
+                for (Batch.Slot l : b.slots)
+                    l.dirty = true;
+    }
+
+    /** releases all buffers; cells are rebuilt when next drawn */
+    public void dispose(GL2 gl) {
+        for (Cell c : cells)
+            for (Batch b : c.batches)
+                for (Batch.Slot l : b.slots)
+                    l.dispose(gl);
+    }
+
+    private final class Cell {
+        final List<Batch> batches = new ArrayList<>(2);
+        /** lower left corner; vertices are stored relative to it */
+        final double x, y;
+        /** modelview of this frame */
+        final float[] matrix = new float[16];
+        int frame;
+
+        Cell(int cx, int cy) {
+            x = cx * (double) cellSize;
+            y = cy * (double) cellSize;
+        }
+
+        /** modelview * scale * translate(corner - origin), the subtraction in double precision */
+        void place() {
+            final float[] v = modelview, m = matrix;
+            final double tx = (x - originX) * scale, ty = (y - originY) * scale;
+            for (int r = 0; r < 4; r++) {
+                m[r] = (float) (v[r] * scale);
+                m[4 + r] = (float) (v[4 + r] * scale);
+                m[8 + r] = (float) (v[8 + r] * scale);
+                m[12 + r] = (float) (v[r] * tx + v[4 + r] * ty + v[12 + r]);
+            }
+        }
+
+        Batch batch(int mode, int layer) {
+            Batch b = find(mode, layer);
+            if (b != null)
+                return b;
+            final int order = layer * 2 + (mode == GL.GL_TRIANGLES ? 0 : 1);
+            b = new Batch(this, mode, order);
+            batches.add(b);
+            maxOrder = Math.max(maxOrder, order);
+            return b;
+        }
+
+        Batch find(int mode, int layer) {
+            final int order = layer * 2 + (mode == GL.GL_TRIANGLES ? 0 : 1);
+            for (Batch b : batches)
+                if (b.mode == mode && b.order == order) return b;
+            return null;
+        }
+    }
+
+    private final class Batch {
+        final Cell cell;
+        final int mode;
+        /** layer * 2, plus 1 for outlines so they draw over the layer's areas */
+        final int order;
+        final List<Vis> members = new ArrayList<>();
+        final Slot[] slots = new Slot[Lod.LEVELS];
+
+        Batch(Cell cell, int mode, int order) {
+            this.cell = cell;
+            this.mode = mode;
+            this.order = order;
+            for (int l = 0; l < slots.length; l++)
+                slots[l] = new Slot(l);
+        }
+
+        void add(Vis v) {
+            v.member = members.size();
+            members.add(v);
+            for (Slot l : slots)
+                l.dirty = true;
+        }
+
+        boolean multi() {
+            return mode != GL.GL_LINES && mode != GL.GL_TRIANGLES && mode != GL.GL_POINTS;
+        }
+
+        /** GPU buffers of one level */
+        final class Slot {
+            final int level;
+            /** only for modes drawn with glMultiDrawArrays */
+            IntBuffer first, count;
+            int vbo, ibo, verts, indices;
+            boolean dirty = true;
+            /** members to rewrite in place, unsorted and possibly repeated; null if none */
+            IntArrayList changed;
+            /** first vertex of each member in the buffer, computed on the first partial update */
+            int[] offsets;
+
+            Slot(int level) {
+                this.level = level;
+            }
+
+            void upload(GL2 gl) {
+                int n = 0, ni = 0, parts = 0;
+                for (Vis v : members) {
+                    final int vn = v.vertices(level);
+                    if (vn > 0) {
+                        n += vn;
+                        ni += v.indices(level);
+                        parts++;
+                    }
+                }
+
+                final FloatBuffer b = Buffers.newDirectFloatBuffer(n * STRIDE);
+                final IntBuffer ib = ni > 0 ? Buffers.newDirectIntBuffer(ni) : null;
+                final boolean multi = ib == null && multi();
+                if (multi) {
+                    first = Buffers.newDirectIntBuffer(parts);
+                    count = Buffers.newDirectIntBuffer(parts);
+                }
+                int at = 0;
+                for (Vis v : members) {
+                    final int vn = v.vertices(level);
+                    if (vn == 0)
+                        continue;
+                    v.write(b, level, cell.x, cell.y);
+                    if (ib != null)
+                        v.writeIndices(ib, at, level);
+                    if (multi) {
+                        first.put(at);
+                        count.put(vn);
+                    }
+                    at += vn;
+                }
+                b.flip();
+                if (multi) {
+                    first.flip();
+                    count.flip();
+                } else {
+                    first = count = null;
+                }
+
+                if (vbo == 0) {
+                    int[] id = new int[1];
+                    gl.glGenBuffers(1, id, 0);
+                    vbo = id[0];
+                }
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+                gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) n * STRIDE * Buffers.SIZEOF_FLOAT, b, GL.GL_STATIC_DRAW);
+                if (ib != null) {
+                    ib.flip();
+                    if (ibo == 0) {
+                        int[] id = new int[1];
+                        gl.glGenBuffers(1, id, 0);
+                        ibo = id[0];
+                    }
+                    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo);
+                    gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) ni * Buffers.SIZEOF_INT, ib, GL.GL_STATIC_DRAW);
+                }
+                verts = n;
+                indices = ni;
+                dirty = false;
+                changed = null;
+                offsets = null;
+                uploads++;
+                uploadedBytes += (long) n * STRIDE * Buffers.SIZEOF_FLOAT + (long) ni * Buffers.SIZEOF_INT;
+            }
+
+            /** marks a member for rewriting, or the whole slot once half of them changed */
+            void changed(int member) {
+                if (dirty)
+                    return;
+                if (changed == null)
+                    changed = new IntArrayList();
+                changed.add(member);
+                if (changed.size() > members.size() / 2) {
+                    dirty = true;
+                    changed = null;
+                }
+            }
+
+            /** rewrites the vertices of the changed members, or all if their count changed */
+            void update(GL2 gl) {
+                final int[] m = changed.toArray();
+                changed = null;
+                Arrays.sort(m);
+                if (offsets == null) {
+                    offsets = new int[members.size() + 1];
+                    for (int i = 0; i < members.size(); i++)
+                        offsets[i + 1] = offsets[i] + members.get(i).vertices(level);
+                }
+                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+                for (int i = 0, j; i < m.length; i = j + 1) {
+                    j = i;
+                    while (j + 1 < m.length && offsets[m[j + 1]] - offsets[m[j] + 1] < GAP)
+                        j++;
+                    final int from = offsets[m[i]], to = offsets[m[j] + 1];
+                    int n = 0;
+                    for (int k = m[i]; k <= m[j]; k++)
+                        n += members.get(k).vertices(level);
+                    if (n != to - from) {
+                        upload(gl);
+                        return;
+                    }
+                    if (scratch.capacity() < n * STRIDE)
+                        scratch = Buffers.newDirectFloatBuffer(Math.max(n * STRIDE, scratch.capacity() * 2));
+                    scratch.clear();
+                    for (int k = m[i]; k <= m[j]; k++) {
+                        final Vis v = members.get(k);
+                        if (v.vertices(level) > 0)
+                            v.write(scratch, level, cell.x, cell.y);
+                    }
+                    scratch.flip();
+                    final long bytes = (long) n * STRIDE * Buffers.SIZEOF_FLOAT;
+                    gl.glBufferSubData(GL.GL_ARRAY_BUFFER, (long) from * STRIDE * Buffers.SIZEOF_FLOAT, bytes, scratch);
+                    updates++;
+                    uploadedBytes += bytes;
+                }
+            }
+
+            void draw(GL2 gl) {
+                if (dirty)
+                    upload(gl);
+                else {
+                    if (changed != null)
+                        update(gl);
+                    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+                    if (indices > 0)
+                        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo);
+                }
+                if (verts == 0)
+                    return;
+
+                final int stride = STRIDE * Buffers.SIZEOF_FLOAT;
+                gl.glVertexPointer(2, GL.GL_FLOAT, stride, 0);
+                gl.glColorPointer(3, GL.GL_FLOAT, stride, 2 * Buffers.SIZEOF_FLOAT);
+                if (indices > 0)
+                    gl.glDrawElements(mode, indices, GL.GL_UNSIGNED_INT, 0);
+                else if (first != null)
+                    gl.glMultiDrawArrays(mode, first, count, count.remaining());
+                else
+                    gl.glDrawArrays(mode, 0, verts);
+                drawCalls++;
+            }
+
+            void dispose(GL2 gl) {
+                if (vbo != 0) {
+                    gl.glDeleteBuffers(2, new int[]{vbo, ibo}, 0);
+                    vbo = ibo = 0;
+                }
+                dirty = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package netvr;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.graphhopper.GraphHopper;
+import com.graphhopper.config.Profile;
+import com.graphhopper.routing.*;
+import com.graphhopper.routing.lm.PrepareLandmarks;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.DistanceCalcEarth;
+import com.graphhopper.util.PMap;
+import com.graphhopper.util.Parameters.Algorithms;
+import com.graphhopper.util.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many origin/destination queries at once, for analytics rather than display.  Each
+ * distinct coordinate is snapped once up front.  Worker threads then take queries in chunks
+ * and build one {@link QueryGraph} per chunk from copies of its snaps (creating a QueryGraph
+ * rewrites the snaps' closest nodes), routing the whole chunk on it.  The algorithm factory
+ * is stateless and shared; each query creates its algorithm.  A single QueryGraph over all
+ * snaps would save the copies, but its thousands of virtual nodes make every search visit
+ * more nodes.  Uses the landmark (LM) preparation of the first profile if there is one,
+ * otherwise plain bidirectional A*.
+ */
+public final class BatchRouter {
+    private static final Logger logger = LoggerFactory.getLogger(BatchRouter.class);
+
+    /** queries taken by a worker at a time, and routed on one QueryGraph */
+    static final int CHUNK = 32;
+
+    private final Graph graph;
+    private final LocationIndex index;
+    private final Weighting weighting;
+    private final PrepareLandmarks landmarks;
+
+    public BatchRouter(GraphHopper hopper) {
+        final Profile profile = hopper.getProfiles().iterator().next();
+        this.graph = hopper.getGraphHopperStorage();
+        this.index = hopper.getLocationIndex();
+        this.weighting = hopper.createWeighting(profile, new PMap());
+        this.landmarks = hopper.getLMPreparationHandler().isEnabled() ?
+                hopper.getLMPreparationHandler().getPreparation(profile.getName()) : null;
+    }
+
+    /** per query: distance (m), time (ms) and visited nodes; NaN, -1 and 0 where no path was found */
+    public static final class Result {
+        public final double[] distance;
+        public final long[] time;
+        public final int[] visited;
+        /** seconds spent snapping and routing */
+        public double snapSeconds, routeSeconds;
+
+        Result(int n) {
+            distance = new double[n];
+            time = new long[n];
+            visited = new int[n];
+        }
+
+        public int size() {
+            return distance.length;
+        }
+
+        public int found() {
+            int f = 0;
+            for (double d : distance)
+                if (d == d) f++;
+            return f;
+        }
+    }
+
+    /**
+     * @param pairs fromLat, fromLon, toLat, toLon per query
+     */
+    public Result route(double[] pairs, int threads) throws InterruptedException {
+        final int n = pairs.length / 4;
+        final Result r = new Result(n);
+        final StopWatch sw = new StopWatch().start();
+
+        //distinct points, keyed by their fixed point coordinates
+        final LongIntHashMap ids = new LongIntHashMap(n * 2);
+        final int[] point = new int[n * 2];
+        final List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < n * 2; i++) {
+            final double lat = pairs[i * 2], lon = pairs[i * 2 + 1];
+            final long key = ((long) Quantized.fix(lat) << 32) | (Quantized.fix(lon) & 0xffffffffL);
+            int p = ids.getOrDefault(key, -1);
+            if (p < 0) {
+                ids.put(key, p = points.size());
+                points.add(new double[]{lat, lon});
+            }
+            point[i] = p;
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, t -> {
+            Thread th = new Thread(t, "batch-router");
+            th.setDaemon(true);
+            return th;
+        });
+        try {
+            final Snap[] snaps = new Snap[points.size()];
+            run(pool, threads, snaps.length, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    final double[] p = points.get(i);
+                    snaps[i] = index.findClosest(p[0], p[1], EdgeFilter.ALL_EDGES);
+                }
+            });
+            r.snapSeconds = sw.stop().getSeconds();
+
+            final StopWatch rw = new StopWatch().start();
+            final AlgorithmOptions opts = new AlgorithmOptions(Algorithms.ASTAR_BI, weighting);
+            final RoutingAlgorithmFactory factory = landmarks != null ?
+                    landmarks.getRoutingAlgorithmFactory() : new RoutingAlgorithmFactorySimple();
+            run(pool, threads, n, (from, to) -> {
+                //copies of the chunk's valid snaps, one per distinct point
+                final IntIntHashMap local = new IntIntHashMap();
+                final List<Snap> copies = new ArrayList<>();
+                for (int i = from * 2; i < to * 2; i++) {
+                    final Snap s = snaps[point[i]];
+                    if (s.isValid() && !local.containsKey(point[i])) {
+                        local.put(point[i], copies.size());
+                        copies.add(copy(s));
+                    }
+                }
+                final QueryGraph qGraph = QueryGraph.create(graph, copies);
+                for (int q = from; q < to; q++) {
+                    r.distance[q] = Double.NaN;
+                    r.time[q] = -1;
+                    final int a = local.getOrDefault(point[q * 2], -1), b = local.getOrDefault(point[q * 2 + 1], -1);
+                    if (a < 0 || b < 0)
+                        continue;
+                    final RoutingAlgorithm algo = factory.createAlgo(qGraph, opts);
+                    final Path path = algo.calcPath(copies.get(a).getClosestNode(), copies.get(b).getClosestNode());
+                    r.visited[q] = algo.getVisitedNodes();
+                    if (path.isFound()) {
+                        r.distance[q] = path.getDistance();
+                        r.time[q] = path.getTime();
+                    }
+                }
+            });
+            r.routeSeconds = rw.stop().getSeconds();
+        } finally {
+            pool.shutdownNow();
+        }
+        logger.info("{} queries ({} points) on {} threads: snapped in {}s, routed in {}s, {} found",
+                n, points.size(), threads, r.snapSeconds, r.routeSeconds, r.found());
+        return r;
+    }
+
+    /** a snap as {@link LocationIndex#findClosest} returned it, before any QueryGraph changed it */
+    private static Snap copy(Snap s) {
+        final Snap c = new Snap(s.getQueryPoint().lat, s.getQueryPoint().lon);
+        c.setClosestNode(s.getClosestNode());
+        c.setClosestEdge(s.getClosestEdge());
+        c.setWayIndex(s.getWayIndex());
+        c.setSnappedPosition(s.getSnappedPosition());
+        c.setQueryDistance(s.getQueryDistance());
+        c.calcSnappedPoint(DistanceCalcEarth.DIST_EARTH);
+        return c;
+    }
+
+    private interface Task {
+        /** handles indices [from, to) */
+        void run(int from, int to);
+    }
+
+    /** runs the task over 0..n-1 on the pool, CHUNK indices at a time, and waits for all */
+    private static void run(ExecutorService pool, int threads, int n, Task task) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final List<Callable<Void>> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++)
+            workers.add(() -> {
+                for (int from; (from = next.getAndAdd(CHUNK)) < n; )
+                    task.run(from, Math.min(n, from + CHUNK));
+                return null;
+            });
+        for (Future<Void> f : pool.invokeAll(workers)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
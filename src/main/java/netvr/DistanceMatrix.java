@@ -0,0 +1,337 @@
+package netvr;
+
+import com.graphhopper.GraphHopper;
+import com.graphhopper.apache.commons.collections.IntFloatBinaryHeap;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.querygraph.QueryRoutingCHGraph;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHConfig;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.RoutingCHEdgeExplorer;
+import com.graphhopper.storage.RoutingCHEdgeIterator;
+import com.graphhopper.storage.RoutingCHEdgeIteratorState;
+import com.graphhopper.storage.RoutingCHGraph;
+import com.graphhopper.storage.index.LocationIndex;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Many-to-many travel weights, times and distances over the node based CH preparation
+ * (bucket algorithm): one backward upward search per target leaves (target, weight) entries
+ * in buckets at the nodes it settles, then one forward upward search per source scans the
+ * buckets of the nodes it settles.  An N x M matrix thus costs N + M searches instead of
+ * N * M.  Nodes are stalled on demand, and the buckets are regrouped by node before the
+ * forward searches scan them.  Time and distance are summed along the search trees;
+ * shortcuts are unpacked once and memoized per direction.  All per-node and per-entry state
+ * is in primitive arrays.  Not thread safe; use one instance per thread.
+ */
+public final class DistanceMatrix {
+    private static final Logger logger = LoggerFactory.getLogger(DistanceMatrix.class);
+
+    private final Graph graph;
+    private final LocationIndex index;
+    private final RoutingCHGraph ch;
+    private final Weighting weighting;
+    /** unpacked shortcut distance per CH edge, and time per CH edge and direction; NaN / -1 until known */
+    private final float[] memoDist;
+    private final int[] memoMillis;
+
+    public DistanceMatrix(GraphHopper hopper) {
+        final CHConfig config = hopper.getCHPreparationHandler().getNodeBasedCHConfigs().get(0);
+        this.graph = hopper.getGraphHopperStorage();
+        this.index = hopper.getLocationIndex();
+        this.ch = hopper.getGraphHopperStorage().getRoutingCHGraph(config.getName());
+        this.weighting = ch.getWeighting();
+        memoDist = new float[ch.getEdges()];
+        memoMillis = new int[ch.getEdges() * 2];
+        Arrays.fill(memoDist, Float.NaN);
+        Arrays.fill(memoMillis, -1);
+    }
+
+    /** row-major, sources by targets; infinite weight, NaN distance and -1 time where unreachable */
+    public static final class Result {
+        public final int rows, cols;
+        public final double[] weight, distance;
+        public final long[] time;
+        public double seconds;
+
+        Result(int rows, int cols) {
+            this.rows = rows;
+            this.cols = cols;
+            weight = new double[rows * cols];
+            distance = new double[rows * cols];
+            time = new long[rows * cols];
+            Arrays.fill(weight, Double.POSITIVE_INFINITY);
+            Arrays.fill(distance, Double.NaN);
+            Arrays.fill(time, -1);
+        }
+    }
+
+    /** @param from, to lat, lon per point */
+    public Result calc(double[] from, double[] to) {
+        final StopWatch sw = new StopWatch().start();
+        final int rows = from.length / 2, cols = to.length / 2;
+        final Result r = new Result(rows, cols);
+
+        final Snap[] snaps = new Snap[rows + cols];
+        final List<Snap> valid = new ArrayList<>(snaps.length);
+        for (int i = 0; i < snaps.length; i++) {
+            final double[] p = i < rows ? from : to;
+            final int k = i < rows ? i : i - rows;
+            snaps[i] = index.findClosest(p[k * 2], p[k * 2 + 1], EdgeFilter.ALL_EDGES);
+            if (snaps[i].isValid())
+                valid.add(snaps[i]);
+        }
+        final QueryGraph qGraph = QueryGraph.create(graph, valid);
+        final QueryRoutingCHGraph qch = new QueryRoutingCHGraph(ch, qGraph);
+        final Search s = new Search(qch, qGraph);
+
+        //backward searches fill the buckets
+        final Buckets b = new Buckets(qch.getNodes());
+        for (int j = 0; j < cols; j++) {
+            if (!snaps[rows + j].isValid())
+                continue;
+            s.run(snaps[rows + j].getClosestNode(), true);
+            for (int k = 0; k < s.settledCount; k++) {
+                final int v = s.settled[k];
+                b.add(v, j, s.weight[v], s.dist[v], s.millis[v]);
+            }
+        }
+        b.group();
+        //forward searches scan them
+        for (int i = 0; i < rows; i++) {
+            if (!snaps[i].isValid())
+                continue;
+            s.run(snaps[i].getClosestNode(), false);
+            for (int k = 0; k < s.settledCount; k++) {
+                final int u = s.settled[k], end = b.start[u + 1];
+                final double wu = s.weight[u];
+                for (int e = b.start[u]; e < end; e++) {
+                    final int cell = i * cols + b.target[e];
+                    final double w = wu + b.weight[e];
+                    if (w < r.weight[cell]) {
+                        r.weight[cell] = w;
+                        r.distance[cell] = s.dist[u] + b.dist[e];
+                        r.time[cell] = s.millis[u] + b.millis[e];
+                    }
+                }
+            }
+        }
+        r.seconds = sw.stop().getSeconds();
+        logger.info("{}x{} matrix in {}s, {} bucket entries", rows, cols, r.seconds, b.size);
+        return r;
+    }
+
+    /**
+     * Backward search results, appended per target and then regrouped by node (counting sort),
+     * so a forward search reads each settled node's entries as one contiguous run.
+     */
+    private static final class Buckets {
+        /** entries of node v are [start[v], start[v + 1]) once {@link #group} ran */
+        final int[] start;
+        int[] node = new int[1024], target = new int[1024];
+        double[] weight = new double[1024], dist = new double[1024];
+        long[] millis = new long[1024];
+        int size;
+
+        Buckets(int nodes) {
+            start = new int[nodes + 1];
+        }
+
+        void add(int v, int t, double w, double d, long ms) {
+            if (size == node.length) {
+                final int n = size * 2;
+                node = Arrays.copyOf(node, n);
+                target = Arrays.copyOf(target, n);
+                weight = Arrays.copyOf(weight, n);
+                dist = Arrays.copyOf(dist, n);
+                millis = Arrays.copyOf(millis, n);
+            }
+            node[size] = v;
+            target[size] = t;
+            weight[size] = w;
+            dist[size] = d;
+            millis[size] = ms;
+            start[v + 1]++;
+            size++;
+        }
+
+        void group() {
+            for (int v = 1; v < start.length; v++)
+                start[v] += start[v - 1];
+            final int[] at = Arrays.copyOf(start, start.length - 1);
+            final int[] t = new int[size];
+            final double[] w = new double[size], d = new double[size];
+            final long[] ms = new long[size];
+            for (int e = 0; e < size; e++) {
+                final int k = at[node[e]]++;
+                t[k] = target[e];
+                w[k] = weight[e];
+                d[k] = dist[e];
+                ms[k] = millis[e];
+            }
+            target = t;
+            weight = w;
+            dist = d;
+            millis = ms;
+            node = null;
+        }
+    }
+
+    /** upward Dijkstra over the CH graph; arrays are reset through the settled/touched lists only */
+    private final class Search {
+        final RoutingCHGraph qch;
+        final Graph qGraph;
+        final RoutingCHEdgeExplorer out, in;
+        final int baseNodes, baseEdges;
+        final double[] weight, dist;
+        final long[] millis;
+        final boolean[] done;
+        final int[] settled, touched;
+        int settledCount, touchedCount;
+        /** result of {@link #cost} */
+        double lastDist;
+        long lastMillis;
+        final IntFloatBinaryHeap heap = new IntFloatBinaryHeap(1024);
+
+        Search(RoutingCHGraph qch, Graph qGraph) {
+            this.qch = qch;
+            this.qGraph = qGraph;
+            out = qch.createOutEdgeExplorer();
+            in = qch.createInEdgeExplorer();
+            baseNodes = graph.getNodes();
+            baseEdges = ch.getEdges();
+            final int n = qch.getNodes();
+            weight = new double[n];
+            dist = new double[n];
+            millis = new long[n];
+            done = new boolean[n];
+            settled = new int[n];
+            touched = new int[n];
+            Arrays.fill(weight, Double.POSITIVE_INFINITY);
+        }
+
+        /** @param backward search towards the start node, over incoming edges */
+        void run(int start, boolean backward) {
+            for (int k = 0; k < touchedCount; k++) {
+                final int v = touched[k];
+                weight[v] = Double.POSITIVE_INFINITY;
+                done[v] = false;
+            }
+            touchedCount = settledCount = 0;
+            heap.clear();
+
+            touch(start, 0, 0, 0);
+            heap.insert(0, start);
+            while (!heap.isEmpty()) {
+                final int v = heap.poll();
+                if (done[v])
+                    continue;
+                done[v] = true;
+                if (stalled(v, backward))
+                    continue;
+                settled[settledCount++] = v;
+                final RoutingCHEdgeIterator it = (backward ? in : out).setBaseNode(v);
+                while (it.next()) {
+                    final int adj = it.getAdjNode();
+                    if (done[adj] || !upward(it))
+                        continue;
+                    final double w = weight[v] + it.getWeight(backward);
+                    if (Double.isInfinite(w) || w >= weight[adj])
+                        continue;
+                    //travel direction: adj -> v backward, v -> adj forward
+                    if (backward)
+                        cost(it, adj, v);
+                    else
+                        cost(it, v, adj);
+                    touch(adj, w, dist[v] + lastDist, millis[v] + lastMillis);
+                    heap.insert(w, adj);
+                }
+            }
+        }
+
+        /**
+         * Stall-on-demand: v's tentative weight is not its shortest if a higher node already
+         * reached leads down to it more cheaply, so neither its entries nor its edges matter.
+         */
+        private boolean stalled(int v, boolean backward) {
+            final RoutingCHEdgeIterator it = (backward ? out : in).setBaseNode(v);
+            while (it.next()) {
+                final int adj = it.getAdjNode();
+                if (weight[adj] < weight[v] && upward(it) && weight[adj] + it.getWeight(!backward) < weight[v])
+                    return true;
+            }
+            return false;
+        }
+
+        private void touch(int v, double w, double d, long ms) {
+            if (weight[v] == Double.POSITIVE_INFINITY)
+                touched[touchedCount++] = v;
+            weight[v] = w;
+            dist[v] = d;
+            millis[v] = ms;
+        }
+
+        /** like GraphHopper's CHLevelEdgeFilter: virtual edges and shortcuts always go upward */
+        private boolean upward(RoutingCHEdgeIteratorState e) {
+            final int base = e.getBaseNode(), adj = e.getAdjNode();
+            if (base >= baseNodes || adj >= baseNodes || e.isShortcut())
+                return true;
+            return qch.getLevel(base) <= qch.getLevel(adj);
+        }
+
+        /** distance and time of traveling the edge from p to q, into lastDist and lastMillis */
+        private void cost(RoutingCHEdgeIteratorState e, int p, int q) {
+            final int id = e.getEdge();
+            if (id >= baseEdges) {
+                //virtual: never a shortcut
+                final EdgeIteratorState orig = qGraph.getEdgeIteratorState(e.getOrigEdge(), q);
+                lastDist = orig.getDistance();
+                lastMillis = weighting.calcEdgeMillis(orig, false);
+                return;
+            }
+            unpack(id, p, q);
+            lastDist = memoDist[id];
+            lastMillis = memoMillis[id * 2 + (p < q ? 0 : 1)];
+        }
+    }
+
+    /** memoizes distance and time of a base CH edge traveled from p to q */
+    private void unpack(int e, int p, int q) {
+        final int k = e * 2 + (p < q ? 0 : 1);
+        if (memoMillis[k] >= 0)
+            return;
+        final RoutingCHEdgeIteratorState s = ch.getEdgeIteratorState(e, q);
+        if (!s.isShortcut()) {
+            final EdgeIteratorState orig = graph.getEdgeIteratorState(s.getOrigEdge(), q);
+            memoDist[e] = (float) orig.getDistance();
+            memoMillis[k] = (int) weighting.calcEdgeMillis(orig, false);
+            return;
+        }
+        final int sk1 = s.getSkippedEdge1(), sk2 = s.getSkippedEdge2();
+        //one skipped edge joins p to the middle node, the other the middle node to q
+        RoutingCHEdgeIteratorState t = ch.getEdgeIteratorState(sk1, p);
+        final int first, second, mid;
+        if (t != null) {
+            first = sk1;
+            second = sk2;
+            mid = t.getBaseNode();
+        } else {
+            first = sk2;
+            second = sk1;
+            mid = ch.getEdgeIteratorState(sk1, q).getBaseNode();
+        }
+        unpack(first, p, mid);
+        unpack(second, mid, q);
+        memoDist[e] = memoDist[first] + memoDist[second];
+        memoMillis[k] = memoMillis[first * 2 + (p < mid ? 0 : 1)] + memoMillis[second * 2 + (mid < q ? 0 : 1)];
+    }
+}
@@ -0,0 +1,237 @@
+package netvr;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Column store of the render attributes of every graph edge, indexed by edge id:
+ * endpoints, packed RGB color and thickness.  The index and renderer do not hold an object
+ * per edge: {@link #group} bundles nearby rows into one {@link EdgeVis} of up to {@link #GROUP}.
+ * Endpoints are {@link Quantized} fixed point: as small as floats, but centimeter precise
+ * at any longitude.  An {@link Overlay} can recolor the rows without touching them.
+ * <p>
+ * Rows recolored after their Vis were drawn are reported through {@link #changed} and
+ * collected once per frame by the renderer with {@link #drainChanged}, so it only re-uploads
+ * those (see {@link BatchRenderer#changed}).  Without a renderer draining them (e.g. headless)
+ * at most {@link #maxChanged} are kept; past that the renderer is told to redraw everything.
+ */
+public class EdgeStore {
+
+    /** lon, lat, lon2, lat2 per edge, fixed point */
+    private final int[] xy;
+    private final int[] rgb;
+    private final byte[] thick;
+    private volatile Overlay overlay;
+    /** rows per {@link EdgeVis} */
+    static final int GROUP = 64;
+    /** position in groups of the view holding each row, or -1 */
+    private final int[] groupOf;
+    /** the views made by {@link #group}; guarded by itself */
+    private final List<EdgeVis> groups = new ArrayList<>();
+    /** groups already reported by {@link #groups}, for its single consumer */
+    private final BitSet reported = new java.util.BitSet();
+    /** rows recolored since the last {@link #drainChanged}; swapped with the spare */
+    private IntArrayList changed = new IntArrayList(), spare = new IntArrayList();
+    /** more than maxChanged rows were reported since the last drain */
+    private boolean overflow;
+    final int maxChanged;
+
+    /** per edge color over the stored one, e.g. {@link Isochrone.Result} */
+    public interface Overlay {
+        int rgb(int edge, int base);
+    }
+
+    public EdgeStore(int edges) {
+        xy = new int[edges * 4];
+        rgb = new int[edges];
+        thick = new byte[edges];
+        groupOf = new int[edges];
+        Arrays.fill(groupOf, -1);
+        maxChanged = Math.max(1024, edges / 4);
+    }
+
+    /** the color of a road of this speed (km/h): hue by speed */
+    public static int speedRgb(double speed) {
+        return Color.HSBtoRGB((float) (speed / 100), 1f, 0.8f);
+    }
+
+    /** colors and thickens the row for a road of this speed */
+    public void speed(int e, double speed) {
+        thick(e, speed > 30 ? 7 : 4);
+        rgb(e, speedRgb(speed));
+    }
+
+    /**
+     * bundles the first n of these rows, with their endpoints set and each grouped once, into
+     * views of up to {@link #GROUP} rows along a Hilbert curve of their centers
+     * @return the new views, to add to the index
+     */
+    public List<EdgeVis> group(int[] edges, int n) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int k = 0; k < n; k++) {
+            final int i = edges[k] * 4;
+            minX = Math.min(minX, Math.min(xy[i], xy[i + 2]));
+            minY = Math.min(minY, Math.min(xy[i + 1], xy[i + 3]));
+            maxX = Math.max(maxX, Math.max(xy[i], xy[i + 2]));
+            maxY = Math.max(maxY, Math.max(xy[i + 1], xy[i + 3]));
+        }
+        final double sx = maxX > minX ? 65535.0 / ((double) maxX - minX) : 0;
+        final double sy = maxY > minY ? 65535.0 / ((double) maxY - minY) : 0;
+        final long[] keys = new long[n];
+        for (int k = 0; k < n; k++) {
+            final int i = edges[k] * 4;
+            final double cx = ((double) xy[i] + xy[i + 2]) / 2, cy = ((double) xy[i + 1] + xy[i + 3]) / 2;
+            keys[k] = ((PackedIndex.hilbert((int) ((cx - minX) * sx), (int) ((cy - minY) * sy)) & 0xffffffffL) << 31) | k;
+        }
+        Arrays.sort(keys);
+
+        final List<EdgeVis> vv = new ArrayList<>((n + GROUP - 1) / GROUP);
+        for (int from = 0; from < n; from += GROUP) {
+            final int[] ids = new int[Math.min(GROUP, n - from)];
+            for (int k = 0; k < ids.length; k++)
+                ids[k] = edges[(int) (keys[from + k] & Integer.MAX_VALUE)];
+            vv.add(new EdgeVis(this, ids));
+        }
+        synchronized (groups) {
+            for (EdgeVis v : vv) {
+                for (int e : v.ids)
+                    groupOf[e] = groups.size();
+                groups.add(v);
+            }
+        }
+        return vv;
+    }
+
+    /** the view holding row e, or null before it is grouped */
+    public EdgeVis vis(int e) {
+        synchronized (groups) {
+            final int g = groupOf[e];
+            return g < 0 ? null : groups.get(g);
+        }
+    }
+
+    /**
+     * adds the views holding these rows, e.g. from {@link #drainChanged}, each once; for a
+     * single consumer, the renderer
+     */
+    public void groups(IntArrayList rows, List<EdgeVis> into) {
+        reported.clear();
+        synchronized (groups) {
+            for (int i = 0, n = rows.size(); i < n; i++) {
+                final int g = groupOf[rows.get(i)];
+                if (g >= 0 && !reported.get(g)) {
+                    reported.set(g);
+                    into.add(groups.get(g));
+                }
+            }
+        }
+    }
+
+    /** reports the first n of these rows as recolored, e.g. after {@link #speed} */
+    public void changed(int[] edges, int n) {
+        synchronized (this) {
+            if (overflow)
+                return;
+            if (changed.size() + n > maxChanged) {
+                overflow = true;
+                changed.release();
+                return;
+            }
+            changed.add(edges, 0, n);
+        }
+    }
+
+    /**
+     * moves the rows reported since the last call into the list, in order and possibly
+     * repeated; for a single consumer, the renderer
+     * @return true if more than {@link #maxChanged} were reported and none were kept: redraw all
+     */
+    public boolean drainChanged(IntArrayList into) {
+        final IntArrayList c;
+        final boolean all;
+        synchronized (this) {
+            c = changed;
+            changed = spare;
+            spare = c;
+            all = overflow;
+            overflow = false;
+        }
+        into.addAll(c);
+        c.clear();
+        return all;
+    }
+
+    public int size() {
+        return rgb.length;
+    }
+
+    public void set(int e, double lat, double lon, double lat2, double lon2) {
+        final int i = e * 4;
+        xy[i] = Quantized.fix(lon);
+        xy[i + 1] = Quantized.fix(lat);
+        xy[i + 2] = Quantized.fix(lon2);
+        xy[i + 3] = Quantized.fix(lat2);
+    }
+
+    public void rgb(int e, int rgb) {
+        this.rgb[e] = rgb & 0xffffff;
+    }
+
+    public void thick(int e, int thick) {
+        this.thick[e] = (byte) Math.min(255, Math.max(0, thick));
+    }
+
+    public double lon(int e) {
+        return Quantized.deg(xy[e * 4]);
+    }
+
+    public double lat(int e) {
+        return Quantized.deg(xy[e * 4 + 1]);
+    }
+
+    public double lon2(int e) {
+        return Quantized.deg(xy[e * 4 + 2]);
+    }
+
+    public double lat2(int e) {
+        return Quantized.deg(xy[e * 4 + 3]);
+    }
+
+    public int rgb(int e) {
+        return rgb[e];
+    }
+
+    /** the displayed color: the overlay's if any, else the stored one */
+    public int color(int e) {
+        final Overlay o = overlay;
+        return o == null ? rgb[e] : o.rgb(e, rgb[e]) & 0xffffff;
+    }
+
+    /** @param o null to show the stored colors again */
+    public void overlay(Overlay o) {
+        overlay = o;
+    }
+
+    public int thick(int e) {
+        return thick[e] & 0xff;
+    }
+
+    /** minX, minY, maxX, maxY */
+    public void bounds(int e, float[] b) {
+        final int i = e * 4;
+        b[0] = (float) Quantized.deg(Math.min(xy[i], xy[i + 2]));
+        b[1] = (float) Quantized.deg(Math.min(xy[i + 1], xy[i + 3]));
+        b[2] = (float) Quantized.deg(Math.max(xy[i], xy[i + 2]));
+        b[3] = (float) Quantized.deg(Math.max(xy[i + 1], xy[i + 3]));
+    }
+
+    /** the rows and their grouping; the views add about 40 bytes per {@link #GROUP} rows */
+    public long bytes() {
+        return 4L * xy.length + 4L * rgb.length + thick.length + 4L * groupOf.length + 4L * size();
+    }
+}
@@ -1,62 +1,91 @@
 package netvr;
 
-import com.bulletphysics.collision.broadphase.DbvtAabbMm;
-import com.graphhopper.routing.util.AllEdgesIterator;
 import com.jogamp.opengl.GL2;
 
-import javax.vecmath.Vector3f;
+import java.nio.FloatBuffer;
 
+/** view of a group of nearby edge rows in an {@link EdgeStore}, see {@link EdgeStore#group} */
 public class EdgeVis extends Vis {
-    final int id;
-    final float lat, lon, lat2, lon2;
-    final float[] color = new float[3];
-    float thick = 1;
-
-
-    public EdgeVis(AllEdgesIterator edge, double lat, double lon, double lat2, double lon2) {
-        this.id = edge.getEdge();
-        this.lat = (float) lat;
-        this.lon = (float) lon;
-        this.lat2 = (float) lat2;
-        this.lon2 = (float) lon2;
-
-
-//            float cx = (float) ((lon + lon2) / 2);
-//            float cy = (float) ((lat + lat2) / 2);
-//
-//            final Transform t = new Transform();
-//
-//            final Quat4f rot = new Quat4f();
-//            rot.set(new AxisAngle4f(0, 0, 1,
-//                    (float) Math.atan2(lat2 - lat, lon2 - lon)));
-//            t.setRotation(rot);
-//
-//            t.origin.set(cx - 20, cy - 33, 0);
-//
-//            double dx = abs(lat - lat2);
-//            double dy = abs(lon - lon2);
-//            float thick = 0.05f; //length / 3; //HACK
-//            float density =
-//                    0;
-//            //10;
-//            float margin = thick/2;
-//            float length = Math.max(0, (float) (Math.sqrt(dx * dx + dy * dy) - margin));
-//            w.localCreateRigidBody((float) (density * length * thick * thick * Math.PI), t, new CylinderShapeX(
-//                    new Vector3f(length / 2, thick / 2, thick / 2)));
+    final EdgeStore s;
+    /** the rows */
+    final int[] ids;
+    /** vertices per {@link Lod} level; endpoints never change */
+    private final int[] vertices = new int[Lod.LEVELS];
 
+    public EdgeVis(EdgeStore s, int... ids) {
+        this.s = s;
+        this.ids = ids;
+        for (int l = 0; l < Lod.LEVELS; l++)
+            for (int e : ids)
+                if (kept(e, l))
+                    vertices[l] += 2;
     }
 
     @Override
-    public DbvtAabbMm box() {
-        return new DbvtAabbMm().set(new Vector3f(lon, lat, 0), new Vector3f(lon2, lat2, 0));
+    public void bounds(float[] b) {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY,
+              maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int e : ids) {
+            s.bounds(e, b);
+            minX = Math.min(minX, b[0]);
+            minY = Math.min(minY, b[1]);
+            maxX = Math.max(maxX, b[2]);
+            maxY = Math.max(maxY, b[3]);
+        }
+        b[0] = minX;
+        b[1] = minY;
+        b[2] = maxX;
+        b[3] = maxY;
     }
 
     @Override
     public void draw(GL2 gl) {
         gl.glBegin(GL2.GL_LINES);
-        gl.glColor3fv(color, 0);
-        gl.glVertex3f(lon, lat, 0);
-        gl.glVertex3f(lon2, lat2, 0);
+        for (int e : ids) {
+            final int c = s.color(e);
+            gl.glColor3ub((byte) (c >> 16), (byte) (c >> 8), (byte) c);
+            gl.glVertex3d(s.lon(e), s.lat(e), 0);
+            gl.glVertex3d(s.lon2(e), s.lat2(e), 0);
+        }
         gl.glEnd();
     }
+
+    /** roads go over every way layer */
+    @Override
+    public int layer() {
+        return WayStyle.TOP;
+    }
+
+    @Override
+    public int mode() {
+        return GL2.GL_LINES;
+    }
+
+    @Override
+    public int vertices(int level) {
+        return vertices[level];
+    }
+
+    /** a single segment cannot be simplified, only dropped once shorter than the level's tolerance */
+    private boolean kept(int e, int level) {
+        if (level == 0)
+            return true;
+        double dx = s.lon2(e) - s.lon(e), dy = s.lat2(e) - s.lat(e);
+        double tol = Lod.TOLERANCE[level];
+        return dx * dx + dy * dy >= tol * tol;
+    }
+
+    @Override
+    public void write(FloatBuffer b, int level, double originX, double originY) {
+        if (vertices[level] == 0)
+            return;
+        for (int e : ids) {
+            if (!kept(e, level))
+                continue;
+            final int c = s.color(e);
+            final float r = ((c >> 16) & 0xff) / 255f, g = ((c >> 8) & 0xff) / 255f, bl = (c & 0xff) / 255f;
+            b.put((float) (s.lon(e) - originX)).put((float) (s.lat(e) - originY)).put(r).put(g).put(bl);
+            b.put((float) (s.lon2(e) - originX)).put((float) (s.lat2(e) - originY)).put(r).put(g).put(bl);
+        }
+    }
 }
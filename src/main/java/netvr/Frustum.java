@@ -0,0 +1,148 @@
+package netvr;
+
+/**
+ * View frustum extracted from the GL projection and modelview matrices, for culling the
+ * flat (z = 0) map geometry.  Besides the six clip planes it computes the bounds of the
+ * frustum's footprint on the ground plane, which is what the spatial index is queried with.
+ * With a floating origin the GL matrices are camera relative; planes and footprint are then
+ * still computed in world (absolute) coordinates, in double precision.
+ */
+final class Frustum {
+
+    /** a, b, c, d per plane: left, right, bottom, top, near, far; inside where ax+by+cz+d >= 0 */
+    final float[] planes = new float[24];
+
+    /** minX, minY, maxX, maxY of the frustum intersected with z = 0; empty if minX > maxX */
+    final float[] ground = new float[4];
+
+    /** per-frame counters: index nodes tested, leaves accepted, and leaves drawn */
+    int tested, accepted, drawn;
+
+    private final double[] m = new double[16], inv = new double[16];
+    private final double[] corners = new double[24];
+
+    /** column-major matrices as returned by glGetFloatv */
+    Frustum update(float[] projection, float[] modelview) {
+        return update(projection, modelview, 1, 0, 0);
+    }
+
+    /**
+     * @param modelview camera relative, for world coordinates (x - originX, y - originY) * scale
+     */
+    Frustum update(float[] projection, float[] modelview, double scale, double originX, double originY) {
+        tested = accepted = drawn = 0;
+
+        //clip = projection * modelview * scale * translate(-origin)
+        for (int c = 0; c < 4; c++)
+            for (int r = 0; r < 4; r++) {
+                double s = 0;
+                for (int k = 0; k < 4; k++)
+                    s += (double) projection[k * 4 + r] * modelview[c * 4 + k];
+                m[c * 4 + r] = s;
+            }
+        for (int r = 0; r < 4; r++) {
+            m[r] *= scale;
+            m[4 + r] *= scale;
+            m[8 + r] *= scale;
+            m[12 + r] -= originX * m[r] + originY * m[4 + r];
+        }
+
+        //Gribb-Hartmann: plane = row3 +/- row{0,1,2}
+        for (int p = 0; p < 6; p++) {
+            final int row = p / 2;
+            final double sign = (p % 2 == 0) ? 1 : -1;
+            double a = m[3] + sign * m[row], b = m[7] + sign * m[4 + row],
+                   c = m[11] + sign * m[8 + row], d = m[15] + sign * m[12 + row];
+            double len = Math.sqrt(a * a + b * b + c * c);
+            if (len > 0) {
+                a /= len; b /= len; c /= len; d /= len;
+            }
+            planes[p * 4] = (float) a;
+            planes[p * 4 + 1] = (float) b;
+            planes[p * 4 + 2] = (float) c;
+            planes[p * 4 + 3] = (float) d;
+        }
+
+        groundBounds();
+        return this;
+    }
+
+    /** false if the z = 0 box is entirely outside one of the planes */
+    boolean intersects(float minX, float minY, float maxX, float maxY) {
+        final float[] p = planes;
+        for (int i = 0; i < 24; i += 4) {
+            float a = p[i], b = p[i + 1];
+            if (a * (a > 0 ? maxX : minX) + b * (b > 0 ? maxY : minY) + p[i + 3] < 0)
+                return false;
+        }
+        return true;
+    }
+
+    boolean groundVisible() {
+        return ground[0] <= ground[2];
+    }
+
+    /** footprint on z = 0: bounds of where the 12 frustum edges cross the plane */
+    private void groundBounds() {
+        ground[0] = ground[1] = Float.POSITIVE_INFINITY;
+        ground[2] = ground[3] = Float.NEGATIVE_INFINITY;
+        if (!invert(m, inv))
+            return;
+
+        for (int i = 0; i < 8; i++) {
+            double x = (i & 1) == 0 ? -1 : 1, y = (i & 2) == 0 ? -1 : 1, z = (i & 4) == 0 ? -1 : 1;
+            double w = inv[3] * x + inv[7] * y + inv[11] * z + inv[15];
+            corners[i * 3] = (inv[0] * x + inv[4] * y + inv[8] * z + inv[12]) / w;
+            corners[i * 3 + 1] = (inv[1] * x + inv[5] * y + inv[9] * z + inv[13]) / w;
+            corners[i * 3 + 2] = (inv[2] * x + inv[6] * y + inv[10] * z + inv[14]) / w;
+        }
+        //edges connect corners differing in exactly one bit
+        for (int a = 0; a < 8; a++)
+            for (int bit = 1; bit < 8; bit <<= 1) {
+                int b = a | bit;
+                if (b != a)
+                    cross(a, b);
+            }
+    }
+
+    private void cross(int a, int b) {
+        double za = corners[a * 3 + 2], zb = corners[b * 3 + 2];
+        if ((za > 0) == (zb > 0) && za != 0)
+            return;
+        double t = za == zb ? 0 : za / (za - zb);
+        double x = corners[a * 3] + t * (corners[b * 3] - corners[a * 3]);
+        double y = corners[a * 3 + 1] + t * (corners[b * 3 + 1] - corners[a * 3 + 1]);
+        ground[0] = (float) Math.min(ground[0], x);
+        ground[1] = (float) Math.min(ground[1], y);
+        ground[2] = (float) Math.max(ground[2], x);
+        ground[3] = (float) Math.max(ground[3], y);
+    }
+
+    /** general 4x4 inverse (cofactors); false if singular */
+    static boolean invert(double[] m, double[] inv) {
+        inv[0] = m[5] * m[10] * m[15] - m[5] * m[11] * m[14] - m[9] * m[6] * m[15] + m[9] * m[7] * m[14] + m[13] * m[6] * m[11] - m[13] * m[7] * m[10];
+        inv[4] = -m[4] * m[10] * m[15] + m[4] * m[11] * m[14] + m[8] * m[6] * m[15] - m[8] * m[7] * m[14] - m[12] * m[6] * m[11] + m[12] * m[7] * m[10];
+        inv[8] = m[4] * m[9] * m[15] - m[4] * m[11] * m[13] - m[8] * m[5] * m[15] + m[8] * m[7] * m[13] + m[12] * m[5] * m[11] - m[12] * m[7] * m[9];
+        inv[12] = -m[4] * m[9] * m[14] + m[4] * m[10] * m[13] + m[8] * m[5] * m[14] - m[8] * m[6] * m[13] - m[12] * m[5] * m[10] + m[12] * m[6] * m[9];
+        inv[1] = -m[1] * m[10] * m[15] + m[1] * m[11] * m[14] + m[9] * m[2] * m[15] - m[9] * m[3] * m[14] - m[13] * m[2] * m[11] + m[13] * m[3] * m[10];
+        inv[5] = m[0] * m[10] * m[15] - m[0] * m[11] * m[14] - m[8] * m[2] * m[15] + m[8] * m[3] * m[14] + m[12] * m[2] * m[11] - m[12] * m[3] * m[10];
+        inv[9] = -m[0] * m[9] * m[15] + m[0] * m[11] * m[13] + m[8] * m[1] * m[15] - m[8] * m[3] * m[13] - m[12] * m[1] * m[11] + m[12] * m[3] * m[9];
+        inv[13] = m[0] * m[9] * m[14] - m[0] * m[10] * m[13] - m[8] * m[1] * m[14] + m[8] * m[2] * m[13] + m[12] * m[1] * m[10] - m[12] * m[2] * m[9];
+        inv[2] = m[1] * m[6] * m[15] - m[1] * m[7] * m[14] - m[5] * m[2] * m[15] + m[5] * m[3] * m[14] + m[13] * m[2] * m[7] - m[13] * m[3] * m[6];
+        inv[6] = -m[0] * m[6] * m[15] + m[0] * m[7] * m[14] + m[4] * m[2] * m[15] - m[4] * m[3] * m[14] - m[12] * m[2] * m[7] + m[12] * m[3] * m[6];
+        inv[10] = m[0] * m[5] * m[15] - m[0] * m[7] * m[13] - m[4] * m[1] * m[15] + m[4] * m[3] * m[13] + m[12] * m[1] * m[7] - m[12] * m[3] * m[5];
+        inv[14] = -m[0] * m[5] * m[14] + m[0] * m[6] * m[13] + m[4] * m[1] * m[14] - m[4] * m[2] * m[13] - m[12] * m[1] * m[6] + m[12] * m[2] * m[5];
+        inv[3] = -m[1] * m[6] * m[11] + m[1] * m[7] * m[10] + m[5] * m[2] * m[11] - m[5] * m[3] * m[10] - m[9] * m[2] * m[7] + m[9] * m[3] * m[6];
+        inv[7] = m[0] * m[6] * m[11] - m[0] * m[7] * m[10] - m[4] * m[2] * m[11] + m[4] * m[3] * m[10] + m[8] * m[2] * m[7] - m[8] * m[3] * m[6];
+        inv[11] = -m[0] * m[5] * m[11] + m[0] * m[7] * m[9] + m[4] * m[1] * m[11] - m[4] * m[3] * m[9] - m[8] * m[1] * m[7] + m[8] * m[3] * m[5];
+        inv[15] = m[0] * m[5] * m[10] - m[0] * m[6] * m[9] - m[4] * m[1] * m[10] + m[4] * m[2] * m[9] + m[8] * m[1] * m[6] - m[8] * m[2] * m[5];
+
+        double det = m[0] * inv[0] + m[1] * inv[4] + m[2] * inv[8] + m[3] * inv[12];
+        if (det == 0)
+            return false;
+        det = 1.0 / det;
+        for (int i = 0; i < 16; i++)
+            inv[i] *= det;
+        return true;
+    }
+}
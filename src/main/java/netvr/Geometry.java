@@ -0,0 +1,52 @@
+package netvr;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Read access to way entries (see {@link WayGeometry}), whether they live on the heap or in a
+ * memory-mapped {@link VisCache} tile.  Vertices are addressed relative to their entry and
+ * stored as {@link Quantized} fixed point.
+ */
+interface Geometry {
+
+    /** the rules the style ids refer to */
+    WayStyle styles();
+
+    int style(int way);
+
+    int count(int way);
+
+    /** i-th vertex of the way, fixed point */
+    int fixedX(int way, int i);
+
+    int fixedY(int way, int i);
+
+    /** i-th vertex of the way, in degrees; loses precision far from 0,0 */
+    default float x(int way, int i) {
+        return (float) Quantized.deg(fixedX(way, i));
+    }
+
+    default float y(int way, int i) {
+        return (float) Quantized.deg(fixedY(way, i));
+    }
+
+    /**
+     * puts all vertices of the way as x,y relative to the origin (in degrees), each followed
+     * by r,g,b, as {@link BatchRenderer} lays out vertices
+     */
+    default void write(int way, double originX, double originY, float r, float g, float b, FloatBuffer out) {
+        for (int i = 0, n = count(way); i < n; i++)
+            out.put((float) (Quantized.deg(fixedX(way, i)) - originX))
+               .put((float) (Quantized.deg(fixedY(way, i)) - originY))
+               .put(r).put(g).put(b);
+    }
+
+    /** number of triangle indices (3 per triangle); 0 for lines */
+    int triangles(int way);
+
+    /** i-th triangle index of the way, relative to its first vertex */
+    int triangle(int way, int i);
+
+    /** minX, minY, maxX, maxY */
+    void bounds(int way, float[] b);
+}
@@ -20,14 +20,13 @@ package netvr;
 
 import com.bulletphysics.collision.broadphase.AxisSweep3;
 import com.bulletphysics.collision.broadphase.BroadphaseInterface;
-import com.bulletphysics.collision.broadphase.Dbvt;
-import com.bulletphysics.collision.broadphase.DbvtAabbMm;
 import com.bulletphysics.collision.shapes.simple.BoxShape;
 import com.bulletphysics.dynamics.DiscreteDynamicsWorld;
 import com.bulletphysics.dynamics.DynamicsWorld;
 import com.bulletphysics.linearmath.Transform;
 import com.bulletphysics.ui.DemoApplication;
 import com.bulletphysics.ui.JOGL;
+import com.carrotsearch.hppc.IntArrayList;
 import com.carrotsearch.hppc.IntIndexedContainer;
 import com.graphhopper.GraphHopper;
 import com.graphhopper.GraphHopperConfig;
@@ -50,6 +49,9 @@ import com.graphhopper.storage.Graph;
 import com.graphhopper.storage.NodeAccess;
 import com.graphhopper.storage.index.LocationIndexTree;
 import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeIteratorState;
 import com.graphhopper.util.FetchMode;
 import com.graphhopper.util.PMap;
 import com.graphhopper.util.Parameters.Algorithms;
@@ -69,6 +71,9 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -91,12 +96,23 @@ class GraphHopperGL {
     private static final Color[] speedColors = generateColors(15);
     //final Dbvt<EdgeVis> ways = new Dbvt<>();
     private final GraphOSM osm;
+    /** set once every edge is in the ways index, see {@link #buildRoads()} */
+    private volatile EdgeStore roads;
+    private volatile SpeedFeed speeds;
+    private Isochrone isochrone;
+    /** search space of the last routed query, animated by the GL window */
+    private final SearchTrace trace = new SearchTrace(1 << 16);
     private final Graph graph;
     private final LocationIndexTree index;
     private final NodeAccess n;
     private final DecimalEncodedValue avSpeedEnc;
     private final BooleanEncodedValue accessEnc;
     private GraphicsWrapper mg;
+    /** edges painted by the current {@link #paintRoads}, to paint each once */
+    private final BitSet painted = new BitSet();
+    private final IntArrayList paintedEdges = new IntArrayList();
+    /** per {@link GraphicsWrapper#zoom}: paints, nanoseconds and edges painted */
+    private final long[][] paintStats = new long[32][3];
     MouseWheelListener mouseWheelScale = e -> {
         mg.scale(e.getX(), e.getY(), e.getWheelRotation() < 0);
         repaint();
@@ -166,7 +182,7 @@ class GraphHopperGL {
 //        }
     };
 
-    private GraphHopperGL(GraphOSM osm) {
+    GraphHopperGL(GraphOSM osm) {
         this.osm = osm;
         this.graph = osm.getGraphHopperStorage();
         this.n = graph.getNodeAccess();
@@ -191,7 +207,7 @@ class GraphHopperGL {
         this(config(args));
     }
 
-    private static GraphHopperConfig config(String[] args) {
+    static GraphHopperConfig config(String[] args) {
         PMap a = PMap.read(args);
         a.putObject("datareader.file",
                 a.getString("datareader.file",
@@ -201,6 +217,8 @@ class GraphHopperGL {
         a.putObject("graph.location",
                 a.getString("graph.location", "/tmp/m"));
         a.putObject("graph.flag_encoders", a.getString("graph.flag_encoders", "car"));
+        //map the graph files instead of copying them onto the heap
+        a.putObject("graph.dataaccess", a.getString("graph.dataaccess", "MMAP"));
 
         return config(a);
     }
@@ -228,18 +246,18 @@ class GraphHopperGL {
         return cols;
     }
 
-    private static RoutingAlgorithm routerRendered(Graph g, AlgorithmOptions opts, RoutingAlgorithm algo) {
+    private static RoutingAlgorithm routerRendered(Graph g, AlgorithmOptions opts, RoutingAlgorithm algo, SearchTrace trace) {
         final Weighting w = opts.getWeighting();
         final TraversalMode t = opts.getTraversalMode();
 
         if (algo instanceof AStarBidirection) {
-            return new RoutingRenderer.AStarBiRoutingRenderer(g, w, t).setApproximation(((AStarBidirection) algo).getApproximation());
+            return new RoutingRenderer.AStarBiRoutingRenderer(g, w, t, trace).setApproximation(((AStarBidirection) algo).getApproximation());
         } else if (algo instanceof AStar) {
-            return new RoutingRenderer.AStarRoutingRenderer(g, w, t);
+            return new RoutingRenderer.AStarRoutingRenderer(g, w, t, trace);
         } else if (algo instanceof DijkstraBidirectionRef) {
-            return new RoutingRenderer.DijkstraBidirectionRoutingRenderer(g, w, t);
+            return new RoutingRenderer.DijkstraBidirectionRoutingRenderer(g, w, t, trace);
         } else if (algo instanceof Dijkstra) {
-            return new RoutingRenderer.DijkstraSimpleRoutingRenderer(g, w, t);
+            return new RoutingRenderer.DijkstraSimpleRoutingRenderer(g, w, t, trace);
         } else
             throw new UnsupportedOperationException();
     }
@@ -249,9 +267,8 @@ class GraphHopperGL {
             return;
 
 
-        RoutingAlgorithm algo = router(osm);
-
         QueryGraph qGraph = QueryGraph.create(graph, fromRes, toRes);
+        RoutingAlgorithm algo = router(osm, qGraph);
 
         StopWatch sw = new StopWatch().start();
         logger.info("start searching with {} from:{} to:{}", algo, fromRes, toRes);
@@ -273,6 +290,9 @@ class GraphHopperGL {
         }
 
         logger.info("found path in {}s with nodes:{}, millis: {}, visited nodes:{}", sw.getSeconds(), path.calcNodes().size(), path.getTime(), algo.getVisitedNodes());
+        logger.info("settled {}, relaxed {}, pushed {}, polled {}; init {}ms, search {}ms, extract {}ms",
+                trace.settled, trace.relaxed, trace.pushed, trace.polled,
+                trace.initNanos / 1e6, trace.searchNanos / 1e6, trace.extractNanos / 1e6);
         g2.setColor(red);
         mg.plotPath(path, g2, 4);
     }
@@ -305,31 +325,59 @@ class GraphHopperGL {
     }
 
     public void paintRoads(final Graphics2D g2) {
+        paintRoads(g2, mg);
+    }
 
-        Rectangle d = null; //getBounds();
-        BBox b = mg.setBounds(0, d.width, 0, d.height);
+    /**
+     * paints every edge with an endpoint inside the clip (or else device) bounds, visiting only
+     * the nodes of the location index tiles overlapping them
+     * @return the number of edges painted
+     */
+    int paintRoads(final Graphics2D g2, final GraphicsWrapper mg) {
+        final long start = System.nanoTime();
+        Rectangle d = g2.getClipBounds();
+        if (d == null)
+            d = g2.getDeviceConfiguration().getBounds();
+        final BBox b = mg.setBounds(d.x, d.x + d.width, d.y, d.y + d.height);
 
         g2.setColor(Color.black);
+        final EdgeExplorer explorer = graph.createEdgeExplorer();
+        index.query(b, new LocationIndexTree.Visitor() {
+            @Override
+            public void onNode(int node) {
+                if (!b.contains(n.getLatitude(node), n.getLongitude(node)))
+                    return;
+                EdgeIterator edge = explorer.setBaseNode(node);
+                while (edge.next()) {
+                    final int e = edge.getEdge();
+                    if (!painted.get(e)) {
+                        painted.set(e);
+                        paintedEdges.add(e);
+                        plotEdge(g2, mg, edge);
+                    }
+                }
+            }
+        });
 
-        AllEdgesIterator edge = graph.getAllEdges();
-        while (edge.next()) {
-
-            int i = edge.getBaseNode();
-            double lat = n.getLatitude(i);
-            double lon = n.getLongitude(i);
-
-            int j = edge.getAdjNode();
-            double lat2 = n.getLatitude(j);
-            double lon2 = n.getLongitude(j);
-
-            if (b.contains(lat, lon) || b.contains(lat2, lon2))
-                plotEdge(g2, edge);
-        }
-
+        final int count = paintedEdges.size();
+        for (int i = 0; i < count; i++)
+            painted.clear(paintedEdges.get(i));
+        paintedEdges.clear();
+        paintTime(mg.zoom(), System.nanoTime() - start, count);
+        return count;
+    }
 
+    /** adds a paint to the stats of its zoom, logging them every 50 paints */
+    private void paintTime(int zoom, long nanos, int edges) {
+        final long[] s = paintStats[Math.max(0, Math.min(paintStats.length - 1, zoom))];
+        s[0]++;
+        s[1] += nanos;
+        s[2] += edges;
+        if (s[0] % 50 == 0)
+            logger.info("zoom {}: {} paints, {}ms and {} edges per paint", zoom, s[0], s[1] / 1e6 / s[0], s[2] / s[0]);
     }
 
-    private void plotEdge(Graphics2D g2, AllEdgesIterator edge) {
+    private void plotEdge(Graphics2D g2, GraphicsWrapper mg, EdgeIteratorState edge) {
         // mg.plotText(g2, lat * 0.9 + lat2 * 0.1, lon * 0.9 + lon2 * 0.1, iter.getName());
         //mg.plotText(g2, lat * 0.9 + lat2 * 0.1, lon * 0.9 + lon2 * 0.1, "s:" + (int) encoder.getSpeed(iter.getFlags()));
         double speed = edge.get(avSpeedEnc);
@@ -361,7 +409,8 @@ class GraphHopperGL {
                 edge.fetchWayGeometry(FetchMode.ALL));
     }
 
-    private RoutingAlgorithm router(GraphHopper hopper) {
+    /** @param qGraph built once for the current snaps; shared with painting */
+    private RoutingAlgorithm router(GraphHopper hopper, QueryGraph qGraph) {
         Profile profile = hopper.getProfiles().iterator().next();
         if (useCH) {
             CHConfig chConfig = hopper.getCHPreparationHandler().getNodeBasedCHConfigs().get(0);
@@ -370,18 +419,16 @@ class GraphHopperGL {
             return new RoutingRenderer.CHRoutingRenderer(
                     new QueryRoutingCHGraph(
                             hopper.getGraphHopperStorage().getRoutingCHGraph(chConfig.getName()),
-                            QueryGraph.create(hopper.getGraphHopperStorage(),
-                                    fromRes, toRes)));
+                            qGraph), trace);
         } else {
             Weighting weighting = hopper.createWeighting(profile, new PMap());
             final PrepareLandmarks preparation = hopper.getLMPreparationHandler().getPreparation(profile.getName());
             RoutingAlgorithmFactory algoFactory = (g, opts) -> {
                 RoutingAlgorithm algo = preparation.getRoutingAlgorithmFactory().createAlgo(g, opts);
-                return routerRendered(g, opts, algo);
+                return routerRendered(g, opts, algo, trace);
             };
             AlgorithmOptions algoOpts = new AlgorithmOptions(Algorithms.ASTAR_BI, weighting);
             logger.info("algoOpts:{}, weighting: {}", algoOpts, weighting);
-            QueryGraph qGraph = QueryGraph.create(graph, fromRes, toRes);
             return algoFactory.createAlgo(qGraph, algoOpts);
         }
     }
@@ -404,8 +451,27 @@ class GraphHopperGL {
     public void window(int w, int h) {
         new JOGL(new DemoApplication() {
 
-            float scale = 96;
-            float lon = Float.NaN, lat = Float.NaN, alt = Float.NaN;
+            /** GL units per degree */
+            final float scale = 96;
+            final BatchRenderer batches = new BatchRenderer(0.02f);
+            final Frustum frustum = new Frustum();
+            final float[] projection = new float[16], modelview = new float[16];
+            int frames;
+            /** the GL scene is camera relative: the camera sits above 0,0 and the world moves */
+            double lon = Double.NaN, lat = Double.NaN;
+            float alt = Float.NaN;
+            /** world position of the physics bodies' origin */
+            double originLon, originLat;
+            /** set when the road colors changed and the batches must be re-uploaded */
+            volatile boolean recolor;
+            /** settled nodes of the traced search drawn so far, and their direction */
+            final IntArrayList frontier = new IntArrayList();
+            final BitSet frontierBackward = new BitSet();
+            final long[] events = new long[1 << 14];
+            /** roads recolored by the speed feed, drained each frame */
+            final IntArrayList recolored = new IntArrayList();
+            /** their groups, each once */
+            final List<EdgeVis> recoloredVis = new ArrayList<>();
 
             @Override
             protected DynamicsWorld physics() {
@@ -426,10 +492,12 @@ class GraphHopperGL {
                 w.setGravity(new Vector3f());
 
                 final BBox bb = graph.getBounds();
-                double latMax = bb.maxLat*scale;
-                double latMin = bb.minLat*scale;
-                double lonMax = bb.maxLon*scale;
-                double lonMin = bb.minLon*scale;
+                originLon = (bb.minLon + bb.maxLon) / 2;
+                originLat = (bb.minLat + bb.maxLat) / 2;
+                double latMax = (bb.maxLat - originLat)*scale;
+                double latMin = (bb.minLat - originLat)*scale;
+                double lonMax = (bb.maxLon - originLon)*scale;
+                double lonMin = (bb.minLon - originLon)*scale;
                 double latR = (latMax - latMin);
                 double lonR = (lonMax - lonMin);
                 float ll = (float) Math.min(latR, lonR)/32;
@@ -438,8 +506,12 @@ class GraphHopperGL {
                 w.localCreateRigidBody(1, new Transform((float)lonMin, (float)latMax, 0), ms);
                 w.localCreateRigidBody(1, new Transform((float)lonMax, (float)latMin, 0), ms);
                 w.localCreateRigidBody(1, new Transform((float)lonMax, (float)latMax, 0), ms);
-                
-                buildRoads();
+
+
+                //edges stream into the index while the first frames render
+                Thread roads = new Thread(GraphHopperGL.this::buildRoads, "road-builder");
+                roads.setDaemon(true);
+                roads.start();
 
                 return w;
             }
@@ -457,8 +529,8 @@ class GraphHopperGL {
 
 
                 updateCamera(
-                    new Vector3f(lon*scale, lat*scale, alt),
-                    new Vector3f(lon*scale, lat*scale, 0),
+                    new Vector3f(0, 0, alt),
+                    new Vector3f(0, 0, 0),
                     //new Vector3f(lon, lat, 5f),
                     cameraUp
                 );
@@ -471,6 +543,8 @@ class GraphHopperGL {
                     case 's': lon+=0.1; break;
                     case 'x': alt=Math.max(zNear+0.0001f,alt-0.2f); break;
                     case 'y': alt+=0.2; break;
+                    case 'i': showIsochrone(lat, lon); recolor = true; break;
+                    case 'o': if (roads != null) roads.overlay(null); recolor = true; break;
                 }
             }
 
@@ -480,37 +554,147 @@ class GraphHopperGL {
                 double latMin = bb.minLat;
                 double lonMax = bb.maxLon;
                 double lonMin = bb.minLon;
-                lon = (float) ((lonMin + lonMax) / 2);
-                lat = (float) ((latMin + latMax) / 2);
+                lon = (lonMin + lonMax) / 2;
+                lat = (latMin + latMax) / 2;
                 alt = 1.5f;
             }
 
             @Override
             protected void renderVolume(GLAutoDrawable drawable) {
+                final GL2 gl = drawable.getGL().getGL2();
+                gl.glPushMatrix();
+                gl.glTranslated((originLon - lon) * scale, (originLat - lat) * scale, 0);
                 super.renderVolume(drawable);
-                drawWays(new Vector3f(lon, lat, 0), alt/scale /* TODO calculate exact using trig */, drawable.getGL().getGL2());
+                gl.glPopMatrix();
+                drawWays(gl, drawable.getSurfaceWidth());
             }
 
-            void drawWays(Vector3f center, float rad, GL2 gl) {
-
-
-                gl.glScalef(scale,scale,scale);
-                osm.ways.collide(new DbvtAabbMm().setRadius(center, rad), new Dbvt.ICollide<>() {
-                    @Override
-                    protected void accept(Dbvt.Node<Vis> n) {
-                        //System.out.println(n);
-                        n.data.draw(gl);
+            void drawWays(GL2 gl, int width) {
+                gl.glGetFloatv(GL2.GL_PROJECTION_MATRIX, projection, 0);
+                gl.glGetFloatv(GL2.GL_MODELVIEW_MATRIX, modelview, 0);
+                final Frustum f = frustum.update(projection, modelview, scale, lon, lat);
+                if (!f.groundVisible())
+                    return;
+
+                final float[] g = f.ground;
+                osm.focus((g[0] + g[2]) / 2, (g[1] + g[3]) / 2);
+                final int level = Lod.level((g[2] - g[0]) / Math.max(1, width));
+                if (recolor) {
+                    recolor = false;
+                    batches.invalidate();
+                }
+                final EdgeStore r = roads;
+                if (r != null) {
+                    if (r.drainChanged(recolored))
+                        batches.invalidate();
+                    else {
+                        r.groups(recolored, recoloredVis);
+                        for (EdgeVis v : recoloredVis)
+                            batches.changed(v);
+                        recoloredVis.clear();
+                    }
+                    recolored.clear();
+                }
+                batches.begin(level, modelview, scale, lon, lat);
+                f.tested = osm.ways.query(g[0], g[1], g[2], g[3], f, v -> {
+                    f.accepted++;
+                    if (v.vertices(level) > 0) {
+                        f.drawn++;
+                        batches.accept(v);
                     }
                 });
+                batches.end(gl);
+                drawTrace(gl);
+
+                if (++frames == 1)
+                    logger.info("first frame {}ms after start, {} parts indexed",
+                            ManagementFactory.getRuntimeMXBean().getUptime(), osm.ways.parts());
+                if (frames % 300 == 0)
+                    logger.info("level {}: {} tested, {} accepted, {} drawn, {} cells, {} draw calls, {} uploads, {} updates, {} bytes",
+                            level, f.tested, f.accepted, f.drawn, batches.cellsDrawn, batches.drawCalls,
+                            batches.uploads, batches.updates, batches.uploadedBytes);
             }
 
 
+            /** the settled nodes of the last traced search, adding up to a batch of events per frame */
+            void drawTrace(GL2 gl) {
+                if (trace.restarted()) {
+                    frontier.clear();
+                    frontierBackward.clear();
+                }
+                final int count = trace.poll(events);
+                for (int i = 0; i < count; i++) {
+                    final long e = events[i];
+                    if ((SearchTrace.kind(e) & SearchTrace.PUSHED) != 0 || SearchTrace.node(e) >= graph.getNodes())
+                        continue;
+                    if ((SearchTrace.kind(e) & SearchTrace.BACKWARD) != 0)
+                        frontierBackward.set(frontier.size());
+                    frontier.add(SearchTrace.node(e));
+                }
+                if (frontier.isEmpty())
+                    return;
+                gl.glPointSize(3);
+                gl.glBegin(GL2.GL_POINTS);
+                for (int i = 0, size = frontier.size(); i < size; i++) {
+                    final int node = frontier.get(i);
+                    if (frontierBackward.get(i))
+                        gl.glColor3f(1, 0.5f, 0);
+                    else
+                        gl.glColor3f(0, 0.8f, 1);
+                    gl.glVertex3d((n.getLongitude(node) - lon) * scale, (n.getLatitude(node) - lat) * scale, 0);
+                }
+                gl.glEnd();
+            }
+
         }, w, h);
     }
 
-    private void buildRoads() {
-        int max = Integer.MAX_VALUE, c = 0;
+    /** colors the roads by the {@link Isochrone#RINGS} reached from the point */
+    private void showIsochrone(double lat, double lon) {
+        final EdgeStore r = roads;
+        if (r == null)
+            return;
+        if (isochrone == null)
+            isochrone = new Isochrone(graph, osm.createWeighting(osm.getProfiles().iterator().next(), new PMap()));
+        final Snap snap = index.findClosest(lat, lon, EdgeFilter.ALL_EDGES);
+        final Isochrone.Result iso = isochrone.calc(snap, Isochrone.RINGS);
+        r.overlay(iso);
+        logger.info("isochrone from {},{}: {} edges in {}s", lat, lon, iso.reached, iso.seconds);
+    }
+
+    /**
+     * a headless renderer of the ways and roads (see {@link TileRenderer}), once all ways are
+     * loaded; builds the roads unless the window already did
+     * @param threads surfaces, i.e. concurrent renders
+     */
+    public TileRenderer tiles(TileRenderer.Backend backend, int threads) {
+        osm.waysLoaded().join();
+        buildRoads();
+        return new TileRenderer(osm.ways, backend, TileRenderer.TILE, threads);
+    }
+
+    /** builds the roads on the first call; later callers wait for it and get the same store */
+    private synchronized EdgeStore buildRoads() {
+        if (roads == null) {
+            final EdgeStore r = new EdgeStore(graph.getEdges());
+            buildRoads(graph, avSpeedEnc, r, osm);
+            speeds = new SpeedFeed(graph, avSpeedEnc, r);
+            logger.info("built {} edges, {} bytes", r.size(), r.bytes());
+            roads = r;
+        }
+        return roads;
+    }
+
+    /** applies traffic speeds to the graph and road colors; null until the roads are built */
+    public SpeedFeed speeds() {
+        return speeds;
+    }
 
+    /** fills the store with every graph edge and streams their grouped {@link EdgeVis} into the ways index */
+    static void buildRoads(Graph graph, DecimalEncodedValue avSpeedEnc, EdgeStore r, GraphOSM osm) {
+        final NodeAccess n = graph.getNodeAccess();
+        final int[] batch = new int[GraphOSM.BATCH];
+        int k = 0;
 
         AllEdgesIterator edge = graph.getAllEdges();
         while (edge.next()) {
@@ -523,17 +707,18 @@ class GraphHopperGL {
             double lat2 = n.getLatitude(j);
             double lon2 = n.getLongitude(j);
 
-            final EdgeVis v = new EdgeVis(edge, lat, lon, lat2, lon2);
-            double speed = edge.get(avSpeedEnc);
-
-            v.thick = speed > 30 ? 7 : 4;
-            Color.getHSBColor((float) (speed/100), 1f, 0.8f).getRGBColorComponents(v.color);
-
-            osm.add(v);
-
-            if (++c >= max) break;
+            final int e = edge.getEdge();
+            r.set(e, lat, lon, lat2, lon2);
+            r.speed(e, edge.get(avSpeedEnc));
 
+            batch[k++] = e;
+            if (k == batch.length) {
+                osm.addAll(r.group(batch, k));
+                k = 0;
+            }
         }
+        osm.addAll(r.group(batch, k));
+        osm.ways.pack();
     }
 
     static class GraphicsWrapper {
@@ -544,6 +729,20 @@ class GraphHopperGL {
         private double offsetX;
         private double offsetY;
         private BBox bounds = new BBox(-180, 180, -90, 90);
+        /** strokes of the integral widths, shared instead of created per edge */
+        private static final BasicStroke[] strokes = new BasicStroke[9];
+
+        static {
+            for (int i = 0; i < strokes.length; i++)
+                strokes[i] = new BasicStroke(i);
+        }
+
+        static void stroke(Graphics2D g2, float width) {
+            final int w = (int) width;
+            final BasicStroke s = w == width && w < strokes.length ? strokes[w] : new BasicStroke(width);
+            if (g2.getStroke() != s)
+                g2.setStroke(s);
+        }
 
         GraphicsWrapper(Graph g) {
             this.na = g.getNodeAccess();
@@ -594,7 +793,7 @@ class GraphHopperGL {
         }
 
         private void plotWayGeometry(Graphics2D g2, boolean fwd, boolean bwd, float width, PointList pl) {
-            g2.setStroke(new BasicStroke(width));
+            stroke(g2, width);
             final int n = pl.size();
             for (int s = 1; s < n; s++) {
                 final double lat1 = pl.getLatitude(s - 1);
@@ -616,7 +815,7 @@ class GraphHopperGL {
         void plotDirectedEdge(Graphics2D g2, double lat, double lon, double lat2, double lon2, float width) {
 
             if (width > 0)
-                g2.setStroke(new BasicStroke(width));
+                stroke(g2, width);
 
             int startLon = (int) Math.round(getX(lon));
             int startLat = (int) Math.round(getY(lat));
@@ -627,7 +826,7 @@ class GraphHopperGL {
 
             // only for deep zoom show direction
             if (scaleX < 0.0001) {
-                g2.setStroke(new BasicStroke(3));
+                stroke(g2, 3);
                 Path2D.Float path = new Path2D.Float();
                 path.moveTo(destLon, destLat);
                 path.lineTo(destLon + 6, destLat - 2);
@@ -644,7 +843,7 @@ class GraphHopperGL {
 
         void plotEdge(Graphics2D g2, double lat, double lon, double lat2, double lon2, float width) {
             if (width > 0)
-                g2.setStroke(new BasicStroke(width));
+                stroke(g2, width);
             g2.drawLine((int) Math.round(getX(lon)), (int) Math.round(getY(lat)), (int) Math.round(getX(lon2)), (int) Math.round(getY(lat2)));
         }
 
@@ -652,6 +851,11 @@ class GraphHopperGL {
             plotEdge(g2, lat, lon, lat2, lon2, 1);
         }
 
+        /** zoom of a {@link TileRenderer} tile with pixels of this size */
+        int zoom() {
+            return (int) Math.floor(Math.log(180 / (scaleX * TileRenderer.TILE)) / Math.log(2));
+        }
+
         double getX(double lon) {
             return (lon + offsetX) / scaleX;
         }
@@ -1,76 +1,333 @@
 package netvr;
 
-import com.bulletphysics.collision.broadphase.Dbvt;
+import com.carrotsearch.hppc.IntArrayList;
 import com.carrotsearch.hppc.LongArrayList;
+import com.graphhopper.GraphHopper;
+import com.graphhopper.GraphHopperConfig;
+import com.graphhopper.reader.ReaderElement;
 import com.graphhopper.reader.ReaderNode;
 import com.graphhopper.reader.ReaderRelation;
 import com.graphhopper.reader.ReaderWay;
 import com.graphhopper.reader.osm.GraphHopperOSM;
-import com.graphhopper.reader.osm.OSMReader;
-import com.graphhopper.routing.util.EncodingManager;
-import com.graphhopper.storage.GraphHopperStorage;
-import com.graphhopper.storage.NodeAccess;
-import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.reader.osm.OSMInputFile;
+import com.graphhopper.util.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 public class GraphOSM extends GraphHopperOSM {
-    public final Dbvt<Vis> ways = new Dbvt<>();
+    private static final Logger logger = LoggerFactory.getLogger(GraphOSM.class);
 
-    GraphHopperStorage ramGraph(String directory, EncodingManager encodingManager, boolean is3D, boolean turnRestrictionsImport) {
-        return new GraphHopperStorage(new RAMDirectory(directory, false),
-                encodingManager, is3D, turnRestrictionsImport);
+    /** ways handed to a worker at once */
+    static final int BATCH = 4096;
+
+    public final VisIndex ways = new VisIndex();
+    /** replaced by {@link #setWayStyle} */
+    public WayGeometry geometry = new WayGeometry();
+
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+
+    private final CompletableFuture<Void> waysLoaded = new CompletableFuture<>();
+    private volatile TileLoader loader;
+
+    /**
+     * reads the way style rules from the file named by "vis.styles", if set
+     * @see WayStyle#parse
+     */
+    @Override
+    public GraphHopper init(GraphHopperConfig c) {
+        super.init(c);
+        final String styles = c.getString("vis.styles", null);
+        if (styles != null) {
+            try {
+                setWayStyle(WayStyle.load(Path.of(styles)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this;
     }
+
+    /** rules deciding which ways are kept and how they are drawn; set before loading */
+    public GraphOSM setWayStyle(WayStyle style) {
+        geometry = new WayGeometry(style);
+        return this;
+    }
+
+    public GraphOSM setWorkerThreads(int workerThreads) {
+        this.workerThreads = Math.max(1, workerThreads);
+        return this;
+    }
+
+    /**
+     * loads the graph, then streams the ways in the background: from the tiled cache if it is
+     * current, nearest to the {@link #focus} first, otherwise by reading the OSM file in file
+     * order.  See {@link #waysLoaded()}.
+     */
     @Override public boolean load(String graphHopperFolder) {
         boolean l = super.load(graphHopperFolder); //HACK
 
-        FullWayReader reader = new FullWayReader(
-                ramGraph("x", getEncodingManager(), true, false));
+        final File osmFile = new File(getOSMFile());
+        final VisCache cache = new VisCache(new File(graphHopperFolder), osmFile, geometry.styles);
+        if (cache.valid()) {
+            try {
+                loader = new TileLoader(cache, this, cache.open()).start(workerThreads);
+                loader.done.whenComplete((x, e) -> {
+                    if (e != null) waysLoaded.completeExceptionally(e);
+                    else waysLoaded.complete(null);
+                });
+                return l;
+            } catch (IOException e) {
+                logger.warn("ignoring cache {}: {}", cache.file, e.toString());
+            }
+        }
 
+        Thread t = new Thread(() -> read(osmFile, cache), "way-ingest");
+        t.setDaemon(true);
+        t.start();
+        return l;
+    }
 
-        reader.setFile(new File(getOSMFile()));
-        //reader.setWorkerThreads(Runtime.getRuntime().availableProcessors());
+    /**
+     * reads the OSM file; ways appear in the index as batches complete.  A failed read fails
+     * {@link #waysLoaded()}; a failed cache write only costs the next start a read.
+     */
+    private void read(File osmFile, VisCache cache) {
+        FullWayReader reader = new FullWayReader(osmFile, workerThreads);
+        try {
+            reader.read();
+            ways.pack();
+        } catch (Exception e) {
+            logger.error("reading ways from {} failed", osmFile, e);
+            waysLoaded.completeExceptionally(e);
+            return;
+        } finally {
+            reader.exe.shutdownNow();
+        }
         try {
-            reader.readGraph();
+            cache.write(geometry);
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.warn("could not write cache {}", cache.file, e);
         }
-        return l; //disable caching
+        waysLoaded.complete(null);
     }
 
+    /** completes once all ways are in {@link #ways} */
+    public CompletableFuture<Void> waysLoaded() {
+        return waysLoaded;
+    }
+
+    /** loads the ways around this lon, lat first */
+    public void focus(float lon, float lat) {
+        final TileLoader t = loader;
+        if (t != null)
+            t.focus(lon, lat);
+    }
+
+
+    /**
+     * Reads ways straight from the OSM file, independent of the routing graph: a pre-pass
+     * collects the node ids referenced by kept ways (and, in a second pre-pass, multipolygon
+     * members) into a {@link NodeStore}, then the main pass fills in their coordinates and
+     * builds the ways.
+     */
+    private class FullWayReader {
+        private final File file;
+        private final int threads;
 
-    private class FullWayReader extends OSMReader {
-        final NodeAccess nodeAccess = getGraphHopperStorage().getNodeAccess();
+        /** builds WayVis off the reader thread; the reader only batches node lists */
+        final ExecutorService exe;
+        private final int maxPending;
+        private final ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+        private final WayStyle styles = geometry.styles;
+        private final NodeStore nodes = new NodeStore();
+        private final Multipolygons multipolygons = new Multipolygons();
+        private List<LongArrayList> batch = new ArrayList<>(BATCH);
+        private IntArrayList batchStyles = new IntArrayList(BATCH);
 
-        public FullWayReader(GraphHopperStorage ghStorage) {
-            super(ghStorage);
+        private final StopWatch sw = new StopWatch();
+        private long nodeCount, wayCount, dropCount, batchCount;
+
+        FullWayReader(File file, int threads) {
+            this.file = file;
+            this.threads = threads;
+            exe = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "way-reader");
+                t.setDaemon(true);
+                return t;
+            });
+            maxPending = threads * 2;
         }
 
-        @Override
-        protected void processNode(ReaderNode node) {
-            super.processNode(node);
+        void read() throws Exception {
+            sw.start();
+            //node ids referenced by kept ways; multipolygon relations
+            scan(e -> {
+                if (e.isType(ReaderElement.WAY)) {
+                    final ReaderWay w = (ReaderWay) e;
+                    if (w.getNodes().size() >= 2 && styles.classify(w) != WayStyle.NONE)
+                        nodes.ref(w.getNodes());
+                } else if (e.isType(ReaderElement.RELATION)) {
+                    processRelation((ReaderRelation) e);
+                }
+                return true;
+            });
+            //relation members can only be known after the relations
+            if (multipolygons.relations() > 0)
+                scan(e -> {
+                    if (e.isType(ReaderElement.WAY) && multipolygons.wants(e.getId())) {
+                        final LongArrayList wn = ((ReaderWay) e).getNodes();
+                        multipolygons.way(e.getId(), wn);
+                        nodes.ref(wn);
+                    }
+                    return !e.isType(ReaderElement.RELATION); //ways precede relations
+                });
+            nodes.seal();
+            logger.info("{} referenced nodes ({} bytes) after {}s", nodes.size(), nodes.bytes(), sw.getCurrentSeconds());
+
+            scan(e -> {
+                if (e.isType(ReaderElement.NODE)) {
+                    final ReaderNode n = (ReaderNode) e;
+                    nodeCount++;
+                    nodes.set(n.getId(), n.getLat(), n.getLon());
+                } else if (e.isType(ReaderElement.WAY)) {
+                    processWay((ReaderWay) e);
+                } else if (e.isType(ReaderElement.RELATION)) {
+                    return false;
+                }
+                return true;
+            });
+            finish();
+
+            if (multipolygons.relations() > 0) {
+                multipolygons.resolve(nodes);
+                final List<Vis> vv = new ArrayList<>();
+                multipolygons.assemble(geometry, new Lod.Pyramid(), vv);
+                addAll(vv);
+                logger.info("assembled {} areas from {} multipolygons ({})",
+                        vv.size(), multipolygons.relations(), multipolygons.stats());
+            }
         }
 
-        @Override
-        protected void processRelation(ReaderRelation relation) {
+        /** one pass over the file, until the visitor returns false */
+        private void scan(Predicate<ReaderElement> each) throws Exception {
+            try (OSMInputFile in = new OSMInputFile(file).setWorkerThreads(threads).open()) {
+                ReaderElement e;
+                while ((e = in.getNext()) != null)
+                    if (!each.test(e))
+                        break;
+            }
+        }
 
+        /** multipolygons of an area style are assembled after the ways */
+        private void processRelation(ReaderRelation relation) {
+            final int style = styles.classify(relation);
+            if (style != WayStyle.NONE && styles.area(style))
+                multipolygons.add(relation, style);
         }
 
-        @Override
-        protected void processWay(ReaderWay way) {
-            //super.processWay(way);
+        private void processWay(ReaderWay way) {
+            wayCount++;
             final LongArrayList wn = way.getNodes();
-            if (wn.size() > 2
-                    //way.getTag("building", null)!=null
-            ) {
-                final WayVis v = new WayVis(wn, getNodeMap(), nodeAccess);
-                if (v.poly.size()>2)
-                    add(v);
+            final int style;
+            if (wn.size() < 2 || (style = styles.classify(way)) == WayStyle.NONE) {
+                dropCount++;
+                return;
+            }
+            batch.add(wn);
+            batchStyles.add(style);
+            if (batch.size() >= BATCH)
+                flush();
+        }
+
+        private void flush() {
+            if (batch.isEmpty())
+                return;
+
+            final List<LongArrayList> b = batch;
+            final IntArrayList bs = batchStyles;
+            batch = new ArrayList<>(BATCH);
+            batchStyles = new IntArrayList(BATCH);
+            batchCount++;
+
+            //bound the memory held by queued batches
+            while (pending.size() >= maxPending)
+                join(pending.poll());
+
+            pending.add(exe.submit(() -> {
+                final List<WayVis> vv = new ArrayList<>(b.size());
+                final Lod.Pyramid p = new Lod.Pyramid();
+                int[] xy = new int[256];
+                for (int i = 0; i < b.size(); i++) {
+                    final LongArrayList wn = b.get(i);
+                    final int style = bs.get(i);
+                    if (xy.length < wn.size() * 2)
+                        xy = new int[wn.size() * 2];
+                    final int n = nodes.resolve(wn, xy);
+                    if (n >= 2) {
+                        final boolean area = styles.area(style) && wn.get(0) == wn.get(wn.size() - 1);
+                        if (p.build(xy, n, null, 0, area).n[0] > 0)
+                            vv.add(new WayVis(geometry, geometry.add(p, style), true));
+                    }
+                }
+                addAll(vv);
+            }));
+        }
+
+        /** waits for all queued batches and reports throughput */
+        void finish() {
+            flush();
+            while (!pending.isEmpty())
+                join(pending.poll());
+            sw.stop();
+
+            double s = Math.max(sw.getSeconds(), 1.0e-9);
+            logger.info("read {} nodes ({} of {} referenced found), {} ways ({} dropped by style) in {}s: {} elements/s, {} ways/s, {} batches/s, {} threads",
+                    nodeCount, nodes.found(), nodes.size(), wayCount, dropCount, sw.getSeconds(), (long) ((nodeCount + wayCount) / s), (long) (wayCount / s), (long) (batchCount / s),
+                    workerThreads);
+        }
+
+        private void join(Future<?> f) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
             }
         }
     }
 
     public void add(Vis v) {
-        ways.put(v, v.box());
+        addAll(List.of(v));
+    }
+
+    public void addAll(List<? extends Vis> vv) {
+        final int n = vv.size();
+        final float[] b = new float[n * 4], tmp = new float[4];
+        for (int i = 0; i < n; i++) {
+            vv.get(i).bounds(tmp);
+            System.arraycopy(tmp, 0, b, i * 4, 4);
+        }
+        addAll(vv, b);
+    }
+
+    /** @param bounds minX, minY, maxX, maxY per Vis */
+    void addAll(List<? extends Vis> vv, float[] bounds) {
+        ways.add(vv, bounds);
     }
 }
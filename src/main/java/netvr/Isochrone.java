@@ -0,0 +1,148 @@
+package netvr;
+
+import com.graphhopper.apache.commons.collections.IntFloatBinaryHeap;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.querygraph.VirtualEdgeIteratorState;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.GHUtility;
+import com.graphhopper.util.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * Reachability from one snapped point: a one-to-all Dijkstra on travel time that stops at the
+ * last ring, tagging every edge it enters with its arrival time.  The {@link Result} is an
+ * {@link EdgeStore.Overlay}, so the rings are drawn by recoloring the existing edge rows.
+ * Per-node state is kept between calls and reset through the touched nodes only.
+ * Not thread safe; use one instance per thread.
+ */
+public final class Isochrone {
+    private static final Logger logger = LoggerFactory.getLogger(Isochrone.class);
+
+    /** 5, 10 and 15 minutes */
+    public static final float[] RINGS = {300, 600, 900};
+
+    private final Graph graph;
+    private final Weighting weighting;
+    /** seconds to reach each node; +inf when untouched */
+    private float[] time = new float[0];
+    private boolean[] done = new boolean[0];
+    private int[] touched = new int[0];
+    private int touchedCount;
+    private final IntFloatBinaryHeap heap = new IntFloatBinaryHeap(1024);
+
+    public Isochrone(Graph graph, Weighting weighting) {
+        this.graph = graph;
+        this.weighting = weighting;
+    }
+
+    /** arrival seconds per edge id, +inf where not reached within the last ring */
+    public static final class Result implements EdgeStore.Overlay {
+        public final float[] arrival;
+        /** upper bounds of the rings in seconds, ascending, and their colors */
+        public final float[] rings;
+        final int[] rgb;
+        public int reached;
+        public double seconds;
+
+        Result(int edges, float[] rings) {
+            arrival = new float[edges];
+            Arrays.fill(arrival, Float.POSITIVE_INFINITY);
+            this.rings = rings;
+            rgb = new int[rings.length];
+            for (int r = 0; r < rings.length; r++)
+                rgb[r] = Color.HSBtoRGB(0.33f * (1 - r / (float) Math.max(1, rings.length - 1)), 1f, 1f);
+        }
+
+        /** the color of the first ring the edge is reached in, or the base color */
+        @Override
+        public int rgb(int edge, int base) {
+            final float t = arrival[edge];
+            for (int r = 0; r < rings.length; r++)
+                if (t <= rings[r])
+                    return rgb[r];
+            return base;
+        }
+    }
+
+    /** @param rings ascending ring bounds in seconds; the search stops at the last */
+    public Result calc(Snap snap, float[] rings) {
+        final StopWatch sw = new StopWatch().start();
+        final Result r = new Result(graph.getEdges(), rings);
+        if (!snap.isValid())
+            return r;
+        final float limit = rings[rings.length - 1];
+        final QueryGraph qGraph = QueryGraph.create(graph, snap);
+        reset(qGraph.getNodes());
+
+        final int baseEdges = graph.getEdges();
+        final EdgeExplorer out = qGraph.createEdgeExplorer(DefaultEdgeFilter.outEdges(weighting.getFlagEncoder()));
+        final int start = snap.getClosestNode();
+        touch(start, 0);
+        heap.insert(0, start);
+        while (!heap.isEmpty()) {
+            final int v = heap.poll();
+            if (done[v])
+                continue;
+            done[v] = true;
+            final float tv = time[v];
+            final EdgeIterator it = out.setBaseNode(v);
+            while (it.next()) {
+                if (Double.isInfinite(weighting.calcEdgeWeight(it, false)))
+                    continue;
+                int e = it.getEdge();
+                if (e >= baseEdges)
+                    e = GHUtility.getEdgeFromEdgeKey(((VirtualEdgeIteratorState)
+                            qGraph.getEdgeIteratorState(e, it.getAdjNode())).getOriginalEdgeKey());
+                if (tv < r.arrival[e]) {
+                    if (r.arrival[e] == Float.POSITIVE_INFINITY)
+                        r.reached++;
+                    r.arrival[e] = tv;
+                }
+                final int adj = it.getAdjNode();
+                if (done[adj])
+                    continue;
+                final float t = tv + weighting.calcEdgeMillis(it, false) / 1000f;
+                if (t <= limit && t < time[adj]) {
+                    touch(adj, t);
+                    heap.insert(t, adj);
+                }
+            }
+        }
+        r.seconds = sw.stop().getSeconds();
+        logger.info("{}s isochrone: {} edges reached, {} nodes touched in {}s", limit, r.reached, touchedCount, r.seconds);
+        return r;
+    }
+
+    private void reset(int nodes) {
+        if (time.length < nodes) {
+            //one snap adds at most one virtual node
+            final int n = Math.max(nodes, graph.getNodes() + 1);
+            time = new float[n];
+            done = new boolean[n];
+            touched = new int[n];
+            Arrays.fill(time, Float.POSITIVE_INFINITY);
+        } else {
+            for (int k = 0; k < touchedCount; k++) {
+                time[touched[k]] = Float.POSITIVE_INFINITY;
+                done[touched[k]] = false;
+            }
+        }
+        touchedCount = 0;
+        heap.clear();
+    }
+
+    private void touch(int v, float t) {
+        if (time[v] == Float.POSITIVE_INFINITY)
+            touched[touchedCount++] = v;
+        time[v] = t;
+    }
+}
@@ -0,0 +1,155 @@
+package netvr;
+
+import java.util.Arrays;
+
+/**
+ * Level of detail pyramid: each way is stored at {@link #LEVELS} resolutions, level 0 being
+ * the original and level l simplified (Douglas-Peucker) to {@link #TOLERANCE}[l] degrees.
+ * Features smaller than a level's tolerance are dropped from it.  The renderer picks the
+ * coarsest level whose tolerance is below the size of a pixel.
+ */
+final class Lod {
+
+    /** simplification tolerance per level, in degrees (~0, 1m, 5m, 25m, 125m) */
+    static final double[] TOLERANCE = {0, 1.0e-5, 5.0e-5, 2.5e-4, 1.25e-3};
+    static final int LEVELS = TOLERANCE.length;
+
+    private Lod() {
+    }
+
+    /** coarsest level with less than one pixel of error */
+    static int level(double degreesPerPixel) {
+        int l = 0;
+        while (l + 1 < LEVELS && TOLERANCE[l + 1] <= degreesPerPixel)
+            l++;
+        return l;
+    }
+
+    /**
+     * Douglas-Peucker over the vertices [from, to) of the fixed point xy, keeping the endpoints
+     * @param tol  in fixed point units
+     * @param keep set for every retained vertex
+     */
+    static void simplify(int[] xy, int from, int to, double tol, boolean[] keep) {
+        keep[from] = keep[to - 1] = true;
+        if (to - from > 2)
+            dp(xy, from, to - 1, tol * tol, keep);
+    }
+
+    private static void dp(int[] xy, int a, int b, double tol2, boolean[] keep) {
+        final double ax = xy[a * 2], ay = xy[a * 2 + 1];
+        final double dx = xy[b * 2] - ax, dy = xy[b * 2 + 1] - ay;
+        final double len2 = dx * dx + dy * dy;
+        int far = -1;
+        double farD = tol2;
+        for (int i = a + 1; i < b; i++) {
+            double px = xy[i * 2] - ax, py = xy[i * 2 + 1] - ay, d;
+            if (len2 == 0) {
+                d = px * px + py * py;
+            } else {
+                double c = px * dy - py * dx;
+                d = c * c / len2;
+            }
+            if (d > farD) {
+                farD = d;
+                far = i;
+            }
+        }
+        if (far < 0)
+            return;
+        keep[far] = true;
+        if (far - a > 1) dp(xy, a, far, tol2, keep);
+        if (b - far > 1) dp(xy, far, b, tol2, keep);
+    }
+
+    /**
+     * Reusable per-worker builder of one way's levels, handed to {@link WayGeometry#add(Pyramid)}.
+     * Level entries with no vertices are dropped at that level.
+     */
+    static final class Pyramid {
+        /** fixed point, see {@link Quantized} */
+        final int[][] xy = new int[LEVELS][];
+        final int[] n = new int[LEVELS];
+        final int[][] tris = new int[LEVELS][];
+        final int[] tn = new int[LEVELS];
+
+        private boolean[] keep = new boolean[64];
+        private int[] holes = new int[4];
+
+        Pyramid() {
+            for (int l = 0; l < LEVELS; l++) {
+                xy[l] = new int[128];
+                tris[l] = new int[0];
+            }
+        }
+
+        /**
+         * @param src   full resolution interleaved x,y, fixed point
+         * @param count vertex count
+         * @param rings vertex index where each inner ring starts, for areas with holes
+         * @param area  closed way to triangulate; otherwise a line
+         */
+        Pyramid build(int[] src, int count, int[] rings, int ringCount, boolean area) {
+            if (keep.length < count)
+                keep = new boolean[count];
+
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                minX = Math.min(minX, src[i * 2]); maxX = Math.max(maxX, src[i * 2]);
+                minY = Math.min(minY, src[i * 2 + 1]); maxY = Math.max(maxY, src[i * 2 + 1]);
+            }
+            final double extent = Math.max((double) maxX - minX, (double) maxY - minY);
+
+            for (int l = 0; l < LEVELS; l++) {
+                n[l] = tn[l] = 0;
+                final double tol = TOLERANCE[l] * Quantized.SCALE;
+                if (l > 0 && extent < tol)
+                    continue; //sub-pixel at this level
+
+                if (xy[l].length < count * 2)
+                    xy[l] = new int[count * 2];
+                final int[] out = xy[l];
+                int c = 0, hc = 0;
+                for (int r = -1; r < ringCount; r++) {
+                    final int from = r < 0 ? 0 : rings[r], to = r + 1 < ringCount ? rings[r + 1] : count;
+                    if (to - from < 2)
+                        continue;
+                    final int ringStart = c;
+                    if (tol > 0) {
+                        Arrays.fill(keep, from, to, false);
+                        simplify(src, from, to, tol, keep);
+                    }
+                    for (int i = from; i < to; i++) {
+                        if (tol == 0 || keep[i]) {
+                            out[c * 2] = src[i * 2];
+                            out[c * 2 + 1] = src[i * 2 + 1];
+                            c++;
+                        }
+                    }
+                    if (area && c - ringStart < 3) {
+                        if (r < 0)
+                            break; //outer ring collapsed; drop the area
+                        c = ringStart; //hole collapsed; skip it
+                    } else if (r >= 0) {
+                        if (hc == holes.length)
+                            holes = Arrays.copyOf(holes, hc * 2);
+                        holes[hc++] = ringStart;
+                    }
+                }
+                if (area) {
+                    if (c < 3)
+                        continue;
+                    int[] t = Triangulator.triangulate(out, c, holes, hc);
+                    if (t.length == 0)
+                        continue;
+                    tris[l] = t;
+                    tn[l] = t.length;
+                } else if (c < 2) {
+                    continue;
+                }
+                n[l] = c;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package netvr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * The ways of one {@link VisCache} tile, read in place from the memory-mapped file, so the
+ * vertex and triangle data stay off the heap and are paged in when a way is first drawn.
+ * Layout (tile relative, little endian): level 0 bounds per way, an int offset per entry, then
+ * per entry the varints style id, vertex count and triangle index count, the {@link Quantized}
+ * vertices relative to the tile origin, and the triangle indices as varints.
+ * The last entry read is kept decoded, since vertices are visited in order.
+ */
+final class MappedGeometry implements Geometry {
+
+    private final ByteBuffer b;
+    private final int ways, offsets;
+    /** tile origin, fixed point */
+    private final int x0, y0;
+    private final WayStyle styles;
+
+    /** one decoded entry; replaced, never modified, so readers on other threads see it whole */
+    private static final class Entry {
+        final int id;
+        final int[] xy, tri;
+
+        Entry(int id, int[] xy, int[] tri) {
+            this.id = id;
+            this.xy = xy;
+            this.tri = tri;
+        }
+    }
+
+    private volatile Entry last = new Entry(-1, null, null);
+
+    MappedGeometry(ByteBuffer tile, int ways, int x0, int y0, WayStyle styles) {
+        this.b = tile.order(ByteOrder.LITTLE_ENDIAN);
+        this.ways = ways;
+        this.offsets = ways * 16;
+        this.x0 = x0;
+        this.y0 = y0;
+        this.styles = styles;
+    }
+
+    int ways() {
+        return ways;
+    }
+
+    /** level 0 bounds of every way, minX, minY, maxX, maxY each */
+    float[] boxes() {
+        final float[] boxes = new float[ways * 4];
+        b.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(0).asFloatBuffer().get(boxes);
+        return boxes;
+    }
+
+    private int at(int entry) {
+        return b.getInt(offsets + entry * 4);
+    }
+
+    /** the k-th header varint of the entry: style, vertex count, triangle index count */
+    private int header(int entry, int k) {
+        long v = Quantized.readVarint(b, at(entry));
+        for (; k > 0; k--)
+            v = Quantized.readVarint(b, (int) (v >>> 32));
+        return (int) v;
+    }
+
+    private Entry entry(int way) {
+        Entry e = last;
+        if (e.id == way)
+            return e;
+        long v = Quantized.readVarint(b, at(way));
+        v = Quantized.readVarint(b, (int) (v >>> 32));
+        final int n = (int) v;
+        v = Quantized.readVarint(b, (int) (v >>> 32));
+        final int tn = (int) v;
+        final int[] xy = new int[n * 2], tri = new int[tn];
+        int pos = Quantized.read(b, (int) (v >>> 32), n, x0, y0, xy);
+        for (int t = 0; t < tn; t++) {
+            v = Quantized.readVarint(b, pos);
+            tri[t] = (int) v;
+            pos = (int) (v >>> 32);
+        }
+        last = e = new Entry(way, xy, tri);
+        return e;
+    }
+
+    @Override
+    public WayStyle styles() {
+        return styles;
+    }
+
+    @Override
+    public int style(int way) {
+        return header(way, 0);
+    }
+
+    @Override
+    public int count(int way) {
+        return header(way, 1);
+    }
+
+    @Override
+    public int fixedX(int way, int i) {
+        return entry(way).xy[i * 2];
+    }
+
+    @Override
+    public int fixedY(int way, int i) {
+        return entry(way).xy[i * 2 + 1];
+    }
+
+    /** decodes the entry once rather than looking it up per vertex */
+    @Override
+    public void write(int way, double originX, double originY, float r, float g, float b, FloatBuffer out) {
+        final int[] xy = entry(way).xy;
+        Quantized.put(xy, 0, xy.length / 2, originX, originY, r, g, b, out);
+    }
+
+    @Override
+    public int triangles(int way) {
+        return header(way, 2);
+    }
+
+    @Override
+    public int triangle(int way, int i) {
+        return entry(way).tri[i];
+    }
+
+    @Override
+    public void bounds(int way, float[] bb) {
+        if (way % Lod.LEVELS == 0) {
+            final int o = way / Lod.LEVELS * 16;
+            bb[0] = b.getFloat(o); bb[1] = b.getFloat(o + 4); bb[2] = b.getFloat(o + 8); bb[3] = b.getFloat(o + 12);
+            return;
+        }
+        final int[] xy = entry(way).xy;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < xy.length; i += 2) {
+            final int x = xy[i], y = xy[i + 1];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        bb[0] = (float) Quantized.deg(minX); bb[1] = (float) Quantized.deg(minY);
+        bb[2] = (float) Quantized.deg(maxX); bb[3] = (float) Quantized.deg(maxY);
+    }
+}
@@ -0,0 +1,242 @@
+package netvr;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.graphhopper.reader.ReaderRelation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assembles multipolygon relations into areas.  Relations are registered as they are read
+ * ({@link #add}), which records their member way ids; the member ways' node ids are then
+ * collected ({@link #way}), resolved to coordinates ({@link #resolve}), and {@link #assemble}
+ * stitches outer and inner members into closed rings by their end node ids, emitting one
+ * {@link WayVis} per outer ring with the inner rings it contains as holes.  All bookkeeping
+ * is in primitive arrays and hppc maps.
+ */
+final class Multipolygons {
+
+    /** member way id -> way slot */
+    private final LongIntHashMap wayIndex = new LongIntHashMap();
+    /** per way slot: first and last OSM node id, and its range in nodeIds, then coords (-1 until read, {@link #INCOMPLETE}) */
+    private final LongArrayList wayFirst = new LongArrayList(), wayLast = new LongArrayList();
+    private final IntArrayList wayStart = new IntArrayList(), wayCount = new IntArrayList();
+    private LongArrayList nodeIds = new LongArrayList();
+    private final IntArrayList coords = new IntArrayList();
+
+    /** per relation: style and the range of its members */
+    private final IntArrayList relStyle = new IntArrayList(), relMembers = new IntArrayList();
+    /** way slot << 1, | 1 for inner */
+    private final IntArrayList members = new IntArrayList();
+
+    /** wayStart of a member way with a node missing */
+    private static final int INCOMPLETE = -2;
+
+    private int rings, broken;
+
+    /** true if the relation is a multipolygon; registers its way members */
+    boolean add(ReaderRelation r, int style) {
+        if (!r.hasTag("type", "multipolygon"))
+            return false;
+        final int from = members.size();
+        for (ReaderRelation.Member m : r.getMembers()) {
+            if (m.getType() != ReaderRelation.Member.WAY)
+                continue;
+            final String role = m.getRole();
+            final boolean inner = "inner".equals(role);
+            if (!inner && !role.isEmpty() && !"outer".equals(role))
+                continue;
+            int w = wayIndex.getOrDefault(m.getRef(), -1);
+            if (w < 0) {
+                w = wayFirst.size();
+                wayIndex.put(m.getRef(), w);
+                wayFirst.add(0);
+                wayLast.add(0);
+                wayStart.add(-1);
+                wayCount.add(0);
+            }
+            members.add((w << 1) | (inner ? 1 : 0));
+        }
+        if (members.size() == from)
+            return false;
+        relMembers.add(from);
+        relStyle.add(style);
+        return true;
+    }
+
+    int relations() {
+        return relStyle.size();
+    }
+
+    /** true if some registered relation references this way */
+    boolean wants(long wayId) {
+        return wayIndex.containsKey(wayId);
+    }
+
+    /** stores the node ids of a member way */
+    void way(long wayId, LongArrayList nodes) {
+        final int w = wayIndex.getOrDefault(wayId, -1);
+        if (w < 0 || nodes.size() < 2)
+            return;
+        wayFirst.set(w, nodes.get(0));
+        wayLast.set(w, nodes.get(nodes.size() - 1));
+        wayStart.set(w, nodeIds.size());
+        wayCount.set(w, nodes.size());
+        nodeIds.addAll(nodes);
+    }
+
+    /**
+     * replaces the member ways' node ids with their coordinates.  Ways with a node missing (e.g.
+     * clipped by the extract) keep only their end node ids: their coordinates would no longer
+     * match them, so the rings they are stitched into count as broken.
+     */
+    void resolve(NodeStore store) {
+        int[] xy = new int[256];
+        for (int w = 0; w < wayStart.size(); w++) {
+            final int s = wayStart.get(w), n = wayCount.get(w);
+            if (s < 0)
+                continue;
+            if (xy.length < n * 2)
+                xy = new int[n * 2];
+            final int c = store.resolve(nodeIds.buffer, s, s + n, xy);
+            if (c != n) {
+                wayStart.set(w, INCOMPLETE);
+                wayCount.set(w, 0);
+                continue;
+            }
+            wayStart.set(w, coords.size() / 2);
+            coords.add(xy, 0, c * 2);
+        }
+        nodeIds = new LongArrayList();
+    }
+
+    /**
+     * stitches every relation and appends the resulting areas to the geometry
+     * @return number of areas added to out
+     */
+    int assemble(WayGeometry g, Lod.Pyramid p, List<Vis> out) {
+        final int before = out.size();
+        final IntArrayList ring = new IntArrayList();
+        final IntArrayList outer = new IntArrayList(), inner = new IntArrayList();
+        final IntArrayList outerXY = new IntArrayList(), innerXY = new IntArrayList();
+        int[] src = new int[256];
+        int[] starts = new int[8];
+
+        for (int r = 0, rn = relStyle.size(); r < rn; r++) {
+            final int from = relMembers.get(r), to = r + 1 < rn ? relMembers.get(r + 1) : members.size();
+            outerXY.clear(); innerXY.clear(); outer.clear(); inner.clear();
+            stitch(from, to, false, ring, outerXY, outer);
+            stitch(from, to, true, ring, innerXY, inner);
+
+            //one area per outer ring, with the inner rings inside it as holes
+            for (int o = 0; o < outer.size(); o += 2) {
+                final int oFrom = outer.get(o), oN = outer.get(o + 1);
+                int n = oN, rc = 0;
+                for (int i = 0; i < inner.size(); i += 2)
+                    if (contains(outerXY.buffer, oFrom, oN, innerXY.get(inner.get(i) * 2), innerXY.get(inner.get(i) * 2 + 1)))
+                        n += inner.get(i + 1);
+                if (src.length < n * 2)
+                    src = new int[n * 2];
+
+                System.arraycopy(outerXY.buffer, oFrom * 2, src, 0, oN * 2);
+                int c = oN;
+                for (int i = 0; i < inner.size(); i += 2) {
+                    final int iFrom = inner.get(i), iN = inner.get(i + 1);
+                    if (!contains(outerXY.buffer, oFrom, oN, innerXY.get(iFrom * 2), innerXY.get(iFrom * 2 + 1)))
+                        continue;
+                    if (rc == starts.length)
+                        starts = Arrays.copyOf(starts, rc * 2);
+                    starts[rc++] = c;
+                    System.arraycopy(innerXY.buffer, iFrom * 2, src, c * 2, iN * 2);
+                    c += iN;
+                }
+                if (p.build(src, c, starts, rc, true).n[0] > 0)
+                    out.add(new WayVis(g, g.add(p, relStyle.get(r)), true));
+            }
+        }
+        return out.size() - before;
+    }
+
+    /**
+     * joins the members of one role into closed rings by matching end node ids, appending each
+     * ring's vertices to xy and its (first vertex, vertex count) to ringRanges
+     */
+    private void stitch(int from, int to, boolean inner, IntArrayList ring, IntArrayList xy, IntArrayList ringRanges) {
+        final int[] m = new int[to - from];
+        int mn = 0;
+        for (int i = from; i < to; i++) {
+            final int v = members.get(i);
+            if (((v & 1) == 1) == inner && (wayStart.get(v >> 1) >= 0 || wayStart.get(v >> 1) == INCOMPLETE))
+                m[mn++] = v >> 1;
+        }
+        final boolean[] used = new boolean[mn];
+        for (int s = 0; s < mn; s++) {
+            if (used[s])
+                continue;
+            used[s] = true;
+            ring.clear();
+            boolean complete = append(ring, m[s], false, false);
+            final long first = wayFirst.get(m[s]);
+            long end = wayLast.get(m[s]);
+            while (end != first) {
+                int next = -1;
+                boolean reverse = false;
+                for (int k = 0; k < mn; k++) {
+                    if (used[k]) continue;
+                    if (wayFirst.get(m[k]) == end) { next = k; break; }
+                    if (wayLast.get(m[k]) == end) { next = k; reverse = true; break; }
+                }
+                if (next < 0)
+                    break;
+                used[next] = true;
+                complete &= append(ring, m[next], reverse, true);
+                end = reverse ? wayFirst.get(m[next]) : wayLast.get(m[next]);
+            }
+            if (!complete || end != first || ring.size() < 8) {
+                broken++;
+                continue;
+            }
+            ringRanges.add(xy.size() / 2, ring.size() / 2);
+            xy.addAll(ring);
+            rings++;
+        }
+    }
+
+    /**
+     * appends a way's vertices, optionally reversed and without the one shared with the ring's end
+     * @return false if the way is {@link #INCOMPLETE}, which appends nothing
+     */
+    private boolean append(IntArrayList ring, int w, boolean reverse, boolean skipShared) {
+        final int s = wayStart.get(w), n = wayCount.get(w);
+        if (s == INCOMPLETE)
+            return false;
+        final int[] c = coords.buffer;
+        for (int i = skipShared ? 1 : 0; i < n; i++) {
+            final int v = s + (reverse ? n - 1 - i : i);
+            ring.add(c[v * 2], c[v * 2 + 1]);
+        }
+        return true;
+    }
+
+    /** even-odd point in polygon test over the ring [from, from + n) of the fixed point xy */
+    static boolean contains(int[] xy, int from, int n, int x, int y) {
+        boolean in = false;
+        for (int i = from, j = from + n - 1; i < from + n; j = i++) {
+            final int yi = xy[i * 2 + 1], yj = xy[j * 2 + 1];
+            if ((yi > y) != (yj > y)) {
+                //in doubles: differences of fixed point longitudes can overflow an int
+                final double xi = xy[i * 2], xj = xy[j * 2];
+                if (x < (xj - xi) * ((double) y - yi) / ((double) yj - yi) + xi)
+                    in = !in;
+            }
+        }
+        return in;
+    }
+
+    /** closed rings assembled and member chains that could not be closed or miss nodes */
+    String stats() {
+        return rings + " rings, " + broken + " broken";
+    }
+}
@@ -0,0 +1,116 @@
+package netvr;
+
+import com.carrotsearch.hppc.LongArrayList;
+
+import java.util.Arrays;
+
+/**
+ * OSM node id to coordinate lookup for the nodes referenced by kept ways only, independent of
+ * the routing graph's node map.  Ids are collected first ({@link #ref}), then {@link #seal}
+ * sorts and dedupes them into a long array, and coordinates are filled in from the node pass
+ * ({@link #set}) and looked up by binary search.  Coordinates are {@link Quantized} fixed point,
+ * so each referenced node costs 16 bytes.
+ */
+final class NodeStore {
+
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    private long[] ids = new long[1 << 16];
+    private int size;
+    /** size after the last compaction; refs beyond it may be unsorted duplicates */
+    private int compacted;
+    private int[] lon, lat;
+    /** position of the last {@link #set}; node passes are usually sorted by id */
+    private int cursor;
+    private int found;
+
+    void ref(LongArrayList nodes) {
+        final int n = nodes.size();
+        if (size + n > ids.length) {
+            compact();
+            if (size + n > ids.length * 3 / 4)
+                ids = Arrays.copyOf(ids, Math.max(size + n, ids.length * 2));
+        }
+        System.arraycopy(nodes.buffer, 0, ids, size, n);
+        size += n;
+    }
+
+    /** sorts and dedupes the ids collected so far */
+    private void compact() {
+        if (compacted == size)
+            return;
+        Arrays.sort(ids, 0, size);
+        int u = 0;
+        for (int i = 0; i < size; i++)
+            if (u == 0 || ids[i] != ids[u - 1])
+                ids[u++] = ids[i];
+        size = compacted = u;
+    }
+
+    /** ends the ref phase; coordinates start out missing */
+    void seal() {
+        compact();
+        ids = Arrays.copyOf(ids, size);
+        lon = new int[size];
+        lat = new int[size];
+        Arrays.fill(lon, MISSING);
+        cursor = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** number of referenced nodes whose coordinates have been set */
+    int found() {
+        return found;
+    }
+
+    /** @return false if the node is not referenced */
+    boolean set(long id, double lat, double lon) {
+        int i = cursor;
+        if (i >= size || ids[i] > id) {
+            i = Arrays.binarySearch(ids, 0, size, id);
+            if (i < 0) {
+                cursor = -i - 1;
+                return false;
+            }
+        } else {
+            while (i < size && ids[i] < id)
+                i++;
+            cursor = i;
+            if (i == size || ids[i] != id)
+                return false;
+        }
+        if (this.lon[i] == MISSING)
+            found++;
+        this.lon[i] = Quantized.fix(lon);
+        this.lat[i] = Quantized.fix(lat);
+        return true;
+    }
+
+    /**
+     * resolves node ids into interleaved fixed point lon,lat pairs, skipping nodes without coordinates
+     * @param xy at least 2 * nodes.size() long
+     * @return number of vertices written
+     */
+    int resolve(LongArrayList nodes, int[] xy) {
+        return resolve(nodes.buffer, 0, nodes.size(), xy);
+    }
+
+    int resolve(long[] nodes, int from, int to, int[] xy) {
+        int c = 0;
+        for (int k = from; k < to; k++) {
+            final int i = Arrays.binarySearch(ids, 0, size, nodes[k]);
+            if (i < 0 || lon[i] == MISSING)
+                continue;
+            xy[c++] = lon[i];
+            xy[c++] = lat[i];
+        }
+        return c / 2;
+    }
+
+    long bytes() {
+        return 8L * ids.length + (lon != null ? 8L * lon.length : 0);
+    }
+}
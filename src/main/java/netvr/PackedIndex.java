@@ -0,0 +1,219 @@
+package netvr;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Static R-tree packed into flat arrays, bulk loaded once from all items.
+ * Leaves are sorted along a Hilbert curve of their centers and grouped {@link #NODE} per
+ * parent, level by level, so a query walks contiguous boxes instead of chasing pointers.
+ * Immutable once built.
+ */
+final class PackedIndex<X> {
+
+    static final int NODE = 16;
+
+    private final Object[] items;
+    /** minX, minY, maxX, maxY per node: the n leaves first, then each parent level */
+    private final float[] boxes;
+    /** node offset where each level starts; levels[levels.length - 1] is the node count */
+    private final int[] levels;
+
+    private PackedIndex(Object[] items, float[] boxes, int[] levels) {
+        this.items = items;
+        this.boxes = boxes;
+        this.levels = levels;
+    }
+
+    static <X> PackedIndex<X> empty() {
+        return new PackedIndex<>(new Object[0], new float[0], new int[]{0});
+    }
+
+    /**
+     * @param bounds minX, minY, maxX, maxY of each item, in the order of items
+     */
+    static <X> PackedIndex<X> build(List<? extends X> items, float[] bounds) {
+        final int n = items.size();
+        if (n == 0)
+            return empty();
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY,
+              maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, bounds[i * 4]);
+            minY = Math.min(minY, bounds[i * 4 + 1]);
+            maxX = Math.max(maxX, bounds[i * 4 + 2]);
+            maxY = Math.max(maxY, bounds[i * 4 + 3]);
+        }
+        final double sx = maxX > minX ? 65535 / ((double) maxX - minX) : 0;
+        final double sy = maxY > minY ? 65535 / ((double) maxY - minY) : 0;
+
+        final long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            double cx = (bounds[i * 4] + bounds[i * 4 + 2]) / 2.0, cy = (bounds[i * 4 + 1] + bounds[i * 4 + 3]) / 2.0;
+            int hx = (int) ((cx - minX) * sx), hy = (int) ((cy - minY) * sy);
+            keys[i] = ((hilbert(hx, hy) & 0xffffffffL) << 31) | i;
+        }
+        Arrays.sort(keys);
+
+        //level sizes
+        int total = n, c = n, depth = 1;
+        while (c > 1) {
+            c = (c + NODE - 1) / NODE;
+            total += c;
+            depth++;
+        }
+        final int[] levels = new int[depth + 1];
+        final float[] boxes = new float[total * 4];
+        final Object[] sorted = new Object[n];
+
+        for (int k = 0; k < n; k++) {
+            final int i = (int) (keys[k] & Integer.MAX_VALUE);
+            sorted[k] = items.get(i);
+            System.arraycopy(bounds, i * 4, boxes, k * 4, 4);
+        }
+
+        int from = 0, to = n, l = 0;
+        levels[0] = 0;
+        while (to - from > 1) {
+            levels[++l] = to;
+            int p = to;
+            for (int i = from; i < to; i += NODE, p++) {
+                float a = Float.POSITIVE_INFINITY, b = Float.POSITIVE_INFINITY,
+                      cc = Float.NEGATIVE_INFINITY, d = Float.NEGATIVE_INFINITY;
+                for (int j = i, e = Math.min(i + NODE, to); j < e; j++) {
+                    a = Math.min(a, boxes[j * 4]);
+                    b = Math.min(b, boxes[j * 4 + 1]);
+                    cc = Math.max(cc, boxes[j * 4 + 2]);
+                    d = Math.max(d, boxes[j * 4 + 3]);
+                }
+                boxes[p * 4] = a;
+                boxes[p * 4 + 1] = b;
+                boxes[p * 4 + 2] = cc;
+                boxes[p * 4 + 3] = d;
+            }
+            from = to;
+            to = p;
+        }
+        levels[++l] = to;
+        return new PackedIndex<>(sorted, boxes, Arrays.copyOf(levels, l + 1));
+    }
+
+    /** bulk loads the items of several parts into one */
+    @SuppressWarnings("unchecked")
+    static <X> PackedIndex<X> merge(PackedIndex<? extends X>[] parts) {
+        int n = 0;
+        for (PackedIndex<? extends X> p : parts)
+            n += p.size();
+        final Object[] items = new Object[n];
+        final float[] bounds = new float[n * 4];
+        int k = 0;
+        for (PackedIndex<? extends X> p : parts) {
+            //the leaves come first
+            System.arraycopy(p.items, 0, items, k, p.size());
+            System.arraycopy(p.boxes, 0, bounds, k * 4, p.size() * 4);
+            k += p.size();
+        }
+        return build((List<X>) Arrays.asList(items), bounds);
+    }
+
+    int size() {
+        return items.length;
+    }
+
+    /** @return number of nodes tested */
+    int query(float minX, float minY, float maxX, float maxY, Consumer<? super X> each) {
+        return query(minX, minY, maxX, maxY, null, each);
+    }
+
+    /**
+     * visits the items whose bounds overlap the box and, if given, the frustum
+     * @return number of nodes (inner and leaf) tested
+     */
+    @SuppressWarnings("unchecked")
+    int query(float minX, float minY, float maxX, float maxY, Frustum f, Consumer<? super X> each) {
+        final int n = items.length;
+        if (n == 0)
+            return 0;
+        final float[] boxes = this.boxes;
+        final int[] levels = this.levels;
+
+        int tested = 0;
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = levels[levels.length - 1] - 1; //root
+        stack[sp++] = levels.length - 2;
+        while (sp > 0) {
+            final int level = stack[--sp], node = stack[--sp];
+            tested++;
+            final int o = node * 4;
+            if (boxes[o] > maxX || boxes[o + 2] < minX || boxes[o + 1] > maxY || boxes[o + 3] < minY)
+                continue;
+            if (f != null && !f.intersects(boxes[o], boxes[o + 1], boxes[o + 2], boxes[o + 3]))
+                continue;
+
+            if (level == 0) {
+                each.accept((X) items[node]);
+                continue;
+            }
+            final int childLevelStart = levels[level - 1];
+            final int first = childLevelStart + (node - levels[level]) * NODE;
+            final int last = Math.min(first + NODE, levels[level]);
+            if (sp + (last - first) * 2 > stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2 + (last - first) * 2);
+            for (int ch = last - 1; ch >= first; ch--) {
+                stack[sp++] = ch;
+                stack[sp++] = level - 1;
+            }
+        }
+        return tested;
+    }
+
+    /** position along a Hilbert curve on a 2^16 grid */
+    static int hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >> 1);
+        int B = (a >> 1) ^ a;
+        int C = ((c >> 1) ^ (b & (d >> 1))) ^ c;
+        int D = ((a & (c >> 1)) ^ (d >> 1)) ^ d;
+
+        a = A; b = B; c = C; d = D;
+        A = ((a & (a >> 2)) ^ (b & (b >> 2)));
+        B = ((a & (b >> 2)) ^ (b & ((a ^ b) >> 2)));
+        C ^= ((a & (c >> 2)) ^ (b & (d >> 2)));
+        D ^= ((b & (c >> 2)) ^ ((a ^ b) & (d >> 2)));
+
+        a = A; b = B; c = C; d = D;
+        A = ((a & (a >> 4)) ^ (b & (b >> 4)));
+        B = ((a & (b >> 4)) ^ (b & ((a ^ b) >> 4)));
+        C ^= ((a & (c >> 4)) ^ (b & (d >> 4)));
+        D ^= ((b & (c >> 4)) ^ ((a ^ b) & (d >> 4)));
+
+        a = A; b = B; c = C; d = D;
+        C ^= ((a & (c >> 8)) ^ (b & (d >> 8)));
+        D ^= ((b & (c >> 8)) ^ ((a ^ b) & (d >> 8)));
+
+        a = C ^ (C >> 1);
+        b = D ^ (D >> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return (i1 << 1) | i0;
+    }
+}
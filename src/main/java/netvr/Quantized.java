@@ -0,0 +1,135 @@
+package netvr;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Fixed point coordinates (1e-7 degrees, about 1cm) and the delta + zigzag varint coding of
+ * vertex runs used by {@link VisCache}.  A run starts relative to its tile's origin and every
+ * further vertex relative to the previous one, so a typical vertex takes 2-3 bytes instead of
+ * 8.  Decoding goes straight to floats relative to a double precision origin, so precision
+ * near the camera does not depend on the distance from 0,0.
+ */
+final class Quantized {
+
+    static final double SCALE = 1.0e7;
+
+    private Quantized() {
+    }
+
+    static int fix(double deg) {
+        return (int) Math.round(deg * SCALE);
+    }
+
+    static double deg(int fixed) {
+        return fixed / SCALE;
+    }
+
+    static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int varintSize(int v) {
+        int n = 1;
+        while ((v & ~0x7f) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * writes n vertices of the interleaved (fixed point) xy array as deltas from x0,y0
+     * @return bytes written
+     */
+    static int write(DataOutputStream out, int[] xy, int n, int x0, int y0) throws IOException {
+        int bytes = 0, px = x0, py = y0;
+        for (int i = 0; i < n; i++) {
+            final int x = xy[i * 2], y = xy[i * 2 + 1];
+            final int dx = zigzag(x - px), dy = zigzag(y - py);
+            writeVarint(out, dx);
+            writeVarint(out, dy);
+            bytes += varintSize(dx) + varintSize(dy);
+            px = x;
+            py = y;
+        }
+        return bytes;
+    }
+
+    /** size of {@link #write} without writing */
+    static int size(int[] xy, int n, int x0, int y0) {
+        int bytes = 0, px = x0, py = y0;
+        for (int i = 0; i < n; i++) {
+            final int x = xy[i * 2], y = xy[i * 2 + 1];
+            bytes += varintSize(zigzag(x - px)) + varintSize(zigzag(y - py));
+            px = x;
+            py = y;
+        }
+        return bytes;
+    }
+
+    /**
+     * reads a varint at pos with absolute gets
+     * @return the value in the low, the position after it in the high 32 bits
+     */
+    static long readVarint(ByteBuffer b, int pos) {
+        int v = 0, shift = 0, c;
+        do {
+            c = b.get(pos++);
+            v |= (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return ((long) pos << 32) | (v & 0xffffffffL);
+    }
+
+    /**
+     * decodes n vertices written by {@link #write} into fixed point
+     * @return position after the run
+     */
+    static int read(ByteBuffer b, int pos, int n, int x0, int y0, int[] xy) {
+        int x = x0, y = y0;
+        for (int i = 0; i < n * 2; ) {
+            //inlined readVarint, twice per vertex
+            int v = 0, shift = 0, c;
+            do {
+                c = b.get(pos++);
+                v |= (c & 0x7f) << shift;
+                shift += 7;
+            } while ((c & 0x80) != 0);
+            xy[i++] = x += unzigzag(v);
+            v = 0;
+            shift = 0;
+            do {
+                c = b.get(pos++);
+                v |= (c & 0x7f) << shift;
+                shift += 7;
+            } while ((c & 0x80) != 0);
+            xy[i++] = y += unzigzag(v);
+        }
+        return pos;
+    }
+
+    /**
+     * puts the fixed point vertices [from, to) as floats relative to the origin (in degrees),
+     * each followed by r,g,b, as {@link BatchRenderer} lays out vertices
+     */
+    static void put(int[] fixed, int from, int to, double originX, double originY, float r, float g, float b, FloatBuffer out) {
+        for (int i = from * 2; i < to * 2; i += 2)
+            out.put((float) (fixed[i] / SCALE - originX)).put((float) (fixed[i + 1] / SCALE - originY))
+               .put(r).put(g).put(b);
+    }
+}
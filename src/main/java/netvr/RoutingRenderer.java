@@ -21,35 +21,78 @@ import com.graphhopper.routing.*;
 import com.graphhopper.routing.util.TraversalMode;
 import com.graphhopper.routing.weighting.Weighting;
 import com.graphhopper.storage.Graph;
-import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.storage.RoutingCHEdgeIteratorState;
 import com.graphhopper.storage.RoutingCHGraph;
 import com.graphhopper.util.EdgeIteratorState;
 
 /**
+ * Routing algorithms that report their search space to a {@link SearchTrace}: settled nodes
+ * and heap pushes as events, scanned edges and heap polls as counters, and the time per
+ * phase.  Without a trace they behave, and nearly cost, exactly like their superclass.
+ *
  * @author Peter Karich
  */
 interface RoutingRenderer {
 
+    /** null if not traced */
+    SearchTrace trace();
+
     /**
      * @author Peter Karich
      */
     class AStarRoutingRenderer extends AStar implements RoutingRenderer {
 
-        private final NodeAccess na;
+        private final SearchTrace trace;
+        /** the node whose edges are being scanned, which was just polled */
+        private int base = -1;
 
         public AStarRoutingRenderer(Graph graph, Weighting type, TraversalMode tMode) {
+            this(graph, type, tMode, null);
+        }
+
+        public AStarRoutingRenderer(Graph graph, Weighting type, TraversalMode tMode, SearchTrace trace) {
             super(graph, type, tMode);
-            na = graph.getNodeAccess();
+            this.trace = trace;
         }
 
+        @Override
+        public SearchTrace trace() {
+            return trace;
+        }
+
+        @Override
+        public Path calcPath(int from, int to) {
+            if (trace == null)
+                return super.calcPath(from, to);
+            trace.begin();
+            final Path p = super.calcPath(from, to);
+            trace.end();
+            return p;
+        }
+
+        @Override
+        protected boolean accept(EdgeIteratorState iter, int prevOrNextEdgeId) {
+            if (trace != null) {
+                if (iter.getBaseNode() != base)
+                    trace.settled(base = iter.getBaseNode(), prevOrNextEdgeId, false);
+                trace.relaxed();
+            }
+            return super.accept(iter, prevOrNextEdgeId);
+        }
 
         @Override
         public void updateBestPath(EdgeIteratorState es, SPTEntry bestEE, int currLoc) {
-//            if (g2 != null) {
-//                mg.plotEdge(g2, na.getLat(bestEE.parent.adjNode), na.getLon(bestEE.parent.adjNode), na.getLat(currLoc), na.getLon(currLoc), .8f);
-//            }
+            if (trace != null)
+                trace.pushed(bestEE.adjNode, bestEE.edge, false);
             super.updateBestPath(es, bestEE, currLoc);
         }
+
+        @Override
+        protected Path extractPath() {
+            if (trace != null)
+                trace.extracting();
+            return super.extractPath();
+        }
     }
 
     /**
@@ -57,20 +100,63 @@ interface RoutingRenderer {
      */
     class AStarBiRoutingRenderer extends AStarBidirection implements RoutingRenderer {
 
+        private final SearchTrace trace;
 
         public AStarBiRoutingRenderer(Graph graph, Weighting type, TraversalMode tMode) {
+            this(graph, type, tMode, null);
+        }
+
+        public AStarBiRoutingRenderer(Graph graph, Weighting type, TraversalMode tMode, SearchTrace trace) {
             super(graph, type, tMode);
+            this.trace = trace;
+        }
+
+        @Override
+        public SearchTrace trace() {
+            return trace;
+        }
+
+        @Override
+        public Path calcPath(int from, int to) {
+            if (trace == null)
+                return super.calcPath(from, to);
+            trace.begin();
+            final Path p = super.calcPath(from, to);
+            trace.end();
+            return p;
+        }
+
+        @Override
+        protected boolean fromEntryCanBeSkipped() {
+            return settled(trace, currFrom, false, super.fromEntryCanBeSkipped());
         }
 
+        @Override
+        protected boolean toEntryCanBeSkipped() {
+            return settled(trace, currTo, true, super.toEntryCanBeSkipped());
+        }
+
+        @Override
+        protected boolean accept(EdgeIteratorState iter, int prevOrNextEdgeId) {
+            if (trace != null)
+                trace.relaxed();
+            return super.accept(iter, prevOrNextEdgeId);
+        }
 
         @Override
         public void updateBestPath(double edgeWeight, SPTEntry entry, int origEdgeId, int traversalId, boolean reverse) {
-//            if (g2 != null) {
-//                mg.plotNode(g2, traversalId, Color.YELLOW);
-//            }
+            if (trace != null)
+                trace.pushed(entry.adjNode, entry.edge, reverse);
             super.updateBestPath(edgeWeight, entry, origEdgeId, traversalId, reverse);
         }
 
+        @Override
+        protected Path extractPath() {
+            if (trace != null)
+                trace.extracting();
+            return super.extractPath();
+        }
+
         @Override
         public String toString() {
             return "debugui|" + super.toString();
@@ -82,22 +168,62 @@ interface RoutingRenderer {
      */
     class DijkstraBidirectionRoutingRenderer extends DijkstraBidirectionRef implements RoutingRenderer {
 
-        private final NodeAccess na;
+        private final SearchTrace trace;
 
         public DijkstraBidirectionRoutingRenderer(Graph graph, Weighting type, TraversalMode tMode) {
+            this(graph, type, tMode, null);
+        }
+
+        public DijkstraBidirectionRoutingRenderer(Graph graph, Weighting type, TraversalMode tMode, SearchTrace trace) {
             super(graph, type, tMode);
-            na = graph.getNodeAccess();
+            this.trace = trace;
+        }
+
+        @Override
+        public SearchTrace trace() {
+            return trace;
+        }
+
+        @Override
+        public Path calcPath(int from, int to) {
+            if (trace == null)
+                return super.calcPath(from, to);
+            trace.begin();
+            final Path p = super.calcPath(from, to);
+            trace.end();
+            return p;
+        }
+
+        @Override
+        protected boolean fromEntryCanBeSkipped() {
+            return settled(trace, currFrom, false, super.fromEntryCanBeSkipped());
+        }
+
+        @Override
+        protected boolean toEntryCanBeSkipped() {
+            return settled(trace, currTo, true, super.toEntryCanBeSkipped());
         }
 
+        @Override
+        protected boolean accept(EdgeIteratorState iter, int prevOrNextEdgeId) {
+            if (trace != null)
+                trace.relaxed();
+            return super.accept(iter, prevOrNextEdgeId);
+        }
 
         @Override
         public void updateBestPath(double edgeWeight, SPTEntry entry, int origEdgeId, int traversalId, boolean reverse) {
-//            if (g2 != null) {
-//                mg.plotEdge(g2, na.getLat(entry.parent.adjNode), na.getLon(entry.parent.adjNode), na.getLat(entry.adjNode), na.getLon(entry.adjNode), .8f);
-//            }
-            // System.out.println("new node:" + currLoc);
+            if (trace != null)
+                trace.pushed(entry.adjNode, entry.edge, reverse);
             super.updateBestPath(edgeWeight, entry, origEdgeId, traversalId, reverse);
         }
+
+        @Override
+        protected Path extractPath() {
+            if (trace != null)
+                trace.extracting();
+            return super.extractPath();
+        }
     }
 
     /**
@@ -105,36 +231,128 @@ interface RoutingRenderer {
      */
     class DijkstraSimpleRoutingRenderer extends Dijkstra implements RoutingRenderer {
 
+        private final SearchTrace trace;
+        /** the node whose edges are being scanned, which was just polled */
+        private int base = -1;
 
         public DijkstraSimpleRoutingRenderer(Graph graph, Weighting weighting, TraversalMode tMode) {
+            this(graph, weighting, tMode, null);
+        }
+
+        public DijkstraSimpleRoutingRenderer(Graph graph, Weighting weighting, TraversalMode tMode, SearchTrace trace) {
             super(graph, weighting, tMode);
+            this.trace = trace;
         }
 
+        @Override
+        public SearchTrace trace() {
+            return trace;
+        }
+
+        @Override
+        public Path calcPath(int from, int to) {
+            if (trace == null)
+                return super.calcPath(from, to);
+            trace.begin();
+            final Path p = super.calcPath(from, to);
+            trace.end();
+            return p;
+        }
+
+        @Override
+        protected boolean accept(EdgeIteratorState iter, int prevOrNextEdgeId) {
+            if (trace != null) {
+                if (iter.getBaseNode() != base)
+                    trace.settled(base = iter.getBaseNode(), prevOrNextEdgeId, false);
+                trace.relaxed();
+            }
+            return super.accept(iter, prevOrNextEdgeId);
+        }
 
         @Override
         public void updateBestPath(EdgeIteratorState es, SPTEntry bestEE, int currLoc) {
-//            if (g2 != null) {
-//                mg.plotNode(g2, currLoc, Color.YELLOW);
-//            }
+            if (trace != null)
+                trace.pushed(bestEE.adjNode, bestEE.edge, false);
             super.updateBestPath(es, bestEE, currLoc);
         }
+
+        @Override
+        protected Path extractPath() {
+            if (trace != null)
+                trace.extracting();
+            return super.extractPath();
+        }
     }
 
     class CHRoutingRenderer extends DijkstraBidirectionCH implements RoutingRenderer {
 
+        private final SearchTrace trace;
 
         public CHRoutingRenderer(RoutingCHGraph graph) {
+            this(graph, null);
+        }
+
+        public CHRoutingRenderer(RoutingCHGraph graph, SearchTrace trace) {
             super(graph);
+            this.trace = trace;
         }
 
+        @Override
+        public SearchTrace trace() {
+            return trace;
+        }
 
         @Override
-        public void updateBestPath(double edgeWeight, SPTEntry entry, int origEdgeId, int traversalId, boolean reverse) {
-//            if (g2 != null)
-//                mg.plotNode(g2, traversalId, Color.YELLOW, 6);
+        public Path calcPath(int from, int to) {
+            if (trace == null)
+                return super.calcPath(from, to);
+            trace.begin();
+            final Path p = super.calcPath(from, to);
+            trace.end();
+            return p;
+        }
+
+        /** stalled entries are polled but not settled */
+        @Override
+        protected boolean fromEntryCanBeSkipped() {
+            return settled(trace, currFrom, false, super.fromEntryCanBeSkipped());
+        }
+
+        @Override
+        protected boolean toEntryCanBeSkipped() {
+            return settled(trace, currTo, true, super.toEntryCanBeSkipped());
+        }
+
+        @Override
+        protected boolean accept(RoutingCHEdgeIteratorState edge, SPTEntry currEdge, boolean reverse) {
+            if (trace != null)
+                trace.relaxed();
+            return super.accept(edge, currEdge, reverse);
+        }
 
+        @Override
+        public void updateBestPath(double edgeWeight, SPTEntry entry, int origEdgeId, int traversalId, boolean reverse) {
+            if (trace != null)
+                trace.pushed(entry.adjNode, entry.edge, reverse);
             super.updateBestPath(edgeWeight, entry, origEdgeId, traversalId, reverse);
         }
+
+        @Override
+        protected Path extractPath() {
+            if (trace != null)
+                trace.extracting();
+            return super.extractPath();
+        }
     }
 
+    /** records a polled bidirectional entry as settled unless it is skipped */
+    static boolean settled(SearchTrace trace, SPTEntry polled, boolean backward, boolean skipped) {
+        if (trace != null) {
+            if (skipped)
+                trace.skipped();
+            else
+                trace.settled(polled.adjNode, polled.edge, backward);
+        }
+        return skipped;
+    }
 }
@@ -0,0 +1,141 @@
+package netvr;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the search space of a {@link RoutingRenderer} algorithm: every settled node with the
+ * edge it was reached by, and every heap push, into a ring buffer that another thread (the
+ * renderer) drains to animate the frontier; plus counters and the time per phase of the last
+ * search.  Single writer, single reader, no locks: the writer fills a slot and then publishes
+ * the event count with an ordered write; a reader that falls about the capacity behind skips
+ * the events that may have been overwritten while it copied.  Algorithms without a trace
+ * (null) only pay a null check.
+ */
+public final class SearchTrace {
+
+    /** event kinds, in the low bit of {@link #kind} */
+    public static final int SETTLED = 0, PUSHED = 1;
+    /** the next bit of {@link #kind}, set for the backward search */
+    public static final int BACKWARD = 2;
+
+    private final long[] ring;
+    private final int mask;
+    /** events ever written; published after the slot */
+    private final AtomicLong written = new AtomicLong();
+    /** reader position */
+    private long read;
+    /** the search number the reader last saw */
+    private int readSearch;
+    private volatile int search;
+
+    /** of the current or last search; exact once it returned */
+    public long settled, relaxed, pushed, polled;
+    /** nanoseconds until the first node was settled, searching, and extracting the path */
+    public long initNanos, searchNanos, extractNanos;
+    private long phaseStart;
+    private boolean searching;
+
+    /** @param capacity events kept, rounded up to a power of two */
+    public SearchTrace(int capacity) {
+        ring = new long[Integer.highestOneBit(Math.max(2, capacity) - 1) << 1];
+        mask = ring.length - 1;
+    }
+
+    /** starts the init phase of a new search and resets the counters */
+    void begin() {
+        settled = relaxed = pushed = polled = 0;
+        initNanos = searchNanos = extractNanos = 0;
+        searching = false;
+        search++;
+        phaseStart = System.nanoTime();
+    }
+
+    void settled(int node, int edge, boolean backward) {
+        if (!searching) {
+            searching = true;
+            final long now = System.nanoTime();
+            initNanos = now - phaseStart;
+            phaseStart = now;
+        }
+        polled++;
+        settled++;
+        add(SETTLED, node, edge, backward);
+    }
+
+    /** a polled entry that was not expanded, e.g. stalled */
+    void skipped() {
+        polled++;
+    }
+
+    void relaxed() {
+        relaxed++;
+    }
+
+    void pushed(int node, int edge, boolean backward) {
+        pushed++;
+        add(PUSHED, node, edge, backward);
+    }
+
+    void extracting() {
+        final long now = System.nanoTime();
+        searchNanos = now - phaseStart;
+        phaseStart = now;
+    }
+
+    void end() {
+        extractNanos = System.nanoTime() - phaseStart;
+    }
+
+    /** node in the high int, edge + 1 (so -1 fits) shifted over the kind in the low int */
+    private void add(int kind, int node, int edge, boolean backward) {
+        final long w = written.get();
+        ring[(int) w & mask] = (long) node << 32 | ((long) (edge + 1) << 2 & 0xffffffffL) | kind | (backward ? BACKWARD : 0);
+        written.lazySet(w + 1);
+    }
+
+    public static int node(long event) {
+        return (int) (event >>> 32);
+    }
+
+    public static int edge(long event) {
+        return ((int) event >>> 2) - 1;
+    }
+
+    public static int kind(long event) {
+        return (int) event & 3;
+    }
+
+    /** true once per search started since the last call; the reader then drops what it drew */
+    public boolean restarted() {
+        final int s = search;
+        if (s == readSearch)
+            return false;
+        readSearch = s;
+        return true;
+    }
+
+    /**
+     * copies the events written since the last call, oldest first, or the most recent
+     * out.length of them, to out
+     *
+     * @return the number copied
+     */
+    public int poll(long[] out) {
+        final long w = written.get();
+        final long from = Math.max(read, w - Math.min(ring.length, out.length));
+        int n = 0;
+        for (long i = from; i < w; i++)
+            out[n++] = ring[(int) i & mask];
+        //the writer may have wrapped over the start while we copied: keep the slot loads above
+        //the count read below, and count the slot of the next, unpublished event as lost too
+        VarHandle.acquireFence();
+        final int lost = (int) Math.min(n, Math.max(0, written.get() + 1 - ring.length - from));
+        if (lost > 0) {
+            System.arraycopy(out, lost, out, 0, n - lost);
+            n -= lost;
+        }
+        read = w;
+        return n;
+    }
+}
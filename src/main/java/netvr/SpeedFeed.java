@@ -0,0 +1,97 @@
+package netvr;
+
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Applies traffic speed updates to the graph and the road colors: each batch sets the
+ * encoded average speed of its edges, recolors their {@link EdgeStore} rows in place and
+ * reports them as changed, so the renderer rewrites only their vertices (see
+ * {@link BatchRenderer#changed}) instead of rebuilding the {@link EdgeVis}.  Call from one
+ * feed thread.  Routing sees the new speeds, except through the CH and LM preparations,
+ * which keep the weights they were built with.
+ */
+public final class SpeedFeed {
+    private static final Logger logger = LoggerFactory.getLogger(SpeedFeed.class);
+
+    /** updates applied and reported at once by {@link #replay} */
+    static final int BATCH = 1024;
+
+    private final Graph graph;
+    private final DecimalEncodedValue avSpeedEnc;
+    private final EdgeStore roads;
+
+    public SpeedFeed(Graph graph, DecimalEncodedValue avSpeedEnc, EdgeStore roads) {
+        this.graph = graph;
+        this.avSpeedEnc = avSpeedEnc;
+        this.roads = roads;
+    }
+
+    /**
+     * sets the speed (km/h) of the first n edges, in both directions, clamped to what the
+     * encoder can store; the store is colored by the speed as stored, i.e. rounded
+     */
+    public void update(int[] edges, double[] speeds, int n) {
+        final double max = avSpeedEnc.getMaxDecimal();
+        for (int i = 0; i < n; i++) {
+            final EdgeIteratorState e = graph.getEdgeIteratorState(edges[i], Integer.MIN_VALUE);
+            final double speed = Math.max(0, Math.min(max, speeds[i]));
+            e.set(avSpeedEnc, speed);
+            if (avSpeedEnc.isStoreTwoDirections())
+                e.setReverse(avSpeedEnc, speed);
+            roads.speed(edges[i], e.get(avSpeedEnc));
+        }
+        roads.changed(edges, n);
+    }
+
+    /**
+     * applies a feed file of "edge speed" lines (blank lines and # comments are skipped) in
+     * batches of {@link #BATCH}
+     * @param rate updates per second to pace the feed at, or 0 to apply it as fast as possible
+     * @return the number of updates applied
+     */
+    public long replay(Path file, int rate) throws IOException, InterruptedException {
+        final int[] edges = new int[BATCH];
+        final double[] speeds = new double[BATCH];
+        final StopWatch sw = new StopWatch().start();
+        final long start = System.nanoTime();
+        long applied = 0;
+        int n = 0;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            for (String line; (line = r.readLine()) != null; ) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#')
+                    continue;
+                final int sp = line.indexOf(' ');
+                if (sp < 0)
+                    throw new IOException("expected 'edge speed': " + line);
+                edges[n] = Integer.parseInt(line, 0, sp, 10);
+                speeds[n] = Double.parseDouble(line.substring(sp + 1).trim());
+                if (++n == BATCH) {
+                    update(edges, speeds, n);
+                    applied += n;
+                    n = 0;
+                    if (rate > 0) {
+                        final long ahead = start + applied * 1_000_000_000L / rate - System.nanoTime();
+                        if (ahead > 0)
+                            Thread.sleep(ahead / 1_000_000, (int) (ahead % 1_000_000));
+                    }
+                }
+            }
+        }
+        update(edges, speeds, n);
+        applied += n;
+        logger.info("applied {} speed updates from {} in {}s", applied, file, sw.stop().getSeconds());
+        return applied;
+    }
+}
@@ -0,0 +1,106 @@
+package netvr;
+
+import com.graphhopper.util.StopWatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the tiles of a {@link VisCache} into a {@link GraphOSM} on background threads,
+ * nearest to the camera first.  Each tile becomes visible in the index as a batch as soon as
+ * it is read, so the viewer can open before everything is loaded; the index packs them as
+ * they accumulate (see {@link VisIndex#PACK}).
+ */
+final class TileLoader {
+    private static final Logger logger = LoggerFactory.getLogger(TileLoader.class);
+
+    private final VisCache cache;
+    private final GraphOSM target;
+    private final List<VisCache.Tile> remaining;
+    private final int total;
+
+    private volatile float focusX, focusY;
+
+    /** completes when every tile has been loaded */
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    TileLoader(VisCache cache, GraphOSM target, List<VisCache.Tile> tiles) {
+        this.cache = cache;
+        this.target = target;
+        this.remaining = new ArrayList<>(tiles);
+        this.total = tiles.size();
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY,
+              maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (VisCache.Tile t : tiles) {
+            minX = Math.min(minX, t.minX); minY = Math.min(minY, t.minY);
+            maxX = Math.max(maxX, t.maxX); maxY = Math.max(maxY, t.maxY);
+        }
+        focus((minX + maxX) / 2, (minY + maxY) / 2);
+    }
+
+    /** tiles nearest to this point load next */
+    void focus(float x, float y) {
+        focusX = x;
+        focusY = y;
+    }
+
+    TileLoader start(int threads) {
+        if (total == 0) {
+            done.complete(null);
+            return this;
+        }
+        final StopWatch sw = new StopWatch().start();
+        final AtomicInteger running = new AtomicInteger(threads), ways = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    VisCache.Tile tile;
+                    while ((tile = next()) != null && !done.isDone())
+                        ways.addAndGet(cache.read(tile, target));
+                } catch (IOException | RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
+                if (running.decrementAndGet() == 0) {
+                    target.ways.pack();
+                    if (done.complete(null))
+                        logger.info("loaded {} ways in {} tiles from {} in {}s", ways.get(), total, cache.file, sw.stop().getSeconds());
+                    try {
+                        cache.close();
+                    } catch (IOException e) {
+                        logger.warn("closing {}: {}", cache.file, e.toString());
+                    }
+                }
+            }, "tile-loader");
+            t.setDaemon(true);
+            t.start();
+        }
+        return this;
+    }
+
+    /** removes and returns the remaining tile closest to the focus */
+    private synchronized VisCache.Tile next() {
+        final float x = focusX, y = focusY;
+        int best = -1;
+        double bestD = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < remaining.size(); i++) {
+            double d = remaining.get(i).distanceSq(x, y);
+            if (d < bestD) {
+                bestD = d;
+                best = i;
+            }
+        }
+        if (best < 0)
+            return null;
+        //swap remove; order does not matter
+        VisCache.Tile t = remaining.get(best);
+        remaining.set(best, remaining.get(remaining.size() - 1));
+        remaining.remove(remaining.size() - 1);
+        return t;
+    }
+}
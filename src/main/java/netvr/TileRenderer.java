@@ -0,0 +1,498 @@
+package netvr;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.graphhopper.util.StopWatch;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a {@link VisIndex} without a window: any lon/lat box into size x size ARGB pixels or
+ * a PNG, and tile pyramids on several threads.  Each render takes a surface from a pool
+ * (one per thread), queries the index, sorts the visible {@link Vis} into the draw order of
+ * {@link BatchRenderer} and writes them into vertex arrays relative to the box' corner, one
+ * batch per order and primitive mode.  The {@link Backend#JAVA2D} surface fills and strokes
+ * those batches on a BufferedImage; the {@link Backend#GL} surface draws them from client
+ * arrays into an offscreen drawable (pbuffer or FBO, e.g. Mesa software) and reads it back,
+ * without antialiasing.
+ * <p>
+ * Tiles are in the geodetic (plate carrée) profile the GL window draws in: zoom z has
+ * 2^(z+1) x 2^z tiles of 180 / 2^z degrees, y counted from the north.
+ */
+public final class TileRenderer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(TileRenderer.class);
+
+    public static final int TILE = 256;
+    /** clear color, opaque white */
+    static final int BACKGROUND = 0xffffffff;
+
+    public enum Backend {
+        JAVA2D, GL;
+
+        Surface create(int size) {
+            return this == GL ? new GLSurface(size) : new Java2DSurface(size);
+        }
+    }
+
+    private final VisIndex index;
+    private final int size;
+    private final BlockingQueue<Surface> pool;
+    private final List<Surface> surfaces = new ArrayList<>();
+
+    /** @param surfaces concurrent renders; each holds a size x size buffer (and, for GL, a context) */
+    public TileRenderer(VisIndex index, Backend backend, int size, int surfaces) {
+        this.index = index;
+        this.size = size;
+        this.pool = new ArrayBlockingQueue<>(surfaces);
+        for (int i = 0; i < surfaces; i++) {
+            Surface s = backend.create(size);
+            this.surfaces.add(s);
+            pool.add(s);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * draws the box, waiting for a free surface
+     * @param argb size * size pixels, 0xAARRGGBB, row 0 at the north
+     * @return the number of Vis drawn
+     */
+    public int render(double minLon, double minLat, double maxLon, double maxLat, int[] argb) throws InterruptedException {
+        final Surface s = pool.take();
+        try {
+            final int drawn = s.render(index, minLon, minLat, maxLon, maxLat);
+            s.read(argb);
+            return drawn;
+        } finally {
+            pool.add(s);
+        }
+    }
+
+    public void png(double minLon, double minLat, double maxLon, double maxLat, OutputStream out) throws InterruptedException, IOException {
+        final int[] argb = new int[size * size];
+        render(minLon, minLat, maxLon, maxLat, argb);
+        ImageIO.write(image(argb, size, null), "png", out);
+    }
+
+    /** the pixels as an image, reusing the given one if it fits */
+    static BufferedImage image(int[] argb, int size, BufferedImage reuse) {
+        final BufferedImage i = reuse != null && reuse.getWidth() == size && reuse.getHeight() == size ? reuse
+                : new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        i.getRaster().setDataElements(0, 0, size, size, argb);
+        return i;
+    }
+
+    /** appends the pixels as r, g, b, a bytes */
+    public static void rgba(int[] argb, ByteBuffer out) {
+        for (int p : argb)
+            out.put((byte) (p >> 16)).put((byte) (p >> 8)).put((byte) p).put((byte) (p >>> 24));
+    }
+
+    /** tiles of a {@link #pyramid} */
+    public static final class Stats {
+        public int tiles, empty;
+        public double seconds;
+
+        public double tilesPerSecond() {
+            return tiles / seconds;
+        }
+    }
+
+    /**
+     * renders every tile overlapping the box for zooms [minZoom, maxZoom] on as many threads
+     * as there are surfaces.  Tiles without any Vis are counted but neither drawn nor written.
+     * @param dir receives z/x/y.png; null to only render the pixels
+     */
+    public Stats pyramid(double minLon, double minLat, double maxLon, double maxLat, int minZoom, int maxZoom, File dir) throws InterruptedException {
+        final List<int[]> tiles = new ArrayList<>();
+        for (int z = minZoom; z <= maxZoom; z++) {
+            final double deg = 180.0 / (1 << z);
+            final int x0 = (int) Math.floor((minLon + 180) / deg), x1 = (int) Math.ceil((maxLon + 180) / deg);
+            final int y0 = (int) Math.floor((90 - maxLat) / deg), y1 = (int) Math.ceil((90 - minLat) / deg);
+            for (int y = y0; y < y1; y++)
+                for (int x = x0; x < x1; x++)
+                    tiles.add(new int[]{z, x, y});
+        }
+
+        final Stats st = new Stats();
+        final StopWatch sw = new StopWatch().start();
+        final int threads = surfaces.size();
+        final AtomicInteger next = new AtomicInteger(), empty = new AtomicInteger();
+        final ExecutorService exec = Executors.newFixedThreadPool(threads, t -> {
+            Thread th = new Thread(t, "tile-renderer");
+            th.setDaemon(true);
+            return th;
+        });
+        try {
+            final List<Callable<Void>> workers = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++)
+                workers.add(() -> {
+                    final int[] argb = new int[size * size];
+                    BufferedImage img = null;
+                    for (int i; (i = next.getAndIncrement()) < tiles.size(); ) {
+                        final int[] t3 = tiles.get(i);
+                        final int z = t3[0], x = t3[1], y = t3[2];
+                        final double deg = 180.0 / (1 << z), w = x * deg - 180, n = 90 - y * deg;
+                        if (render(w, n - deg, w + deg, n, argb) == 0) {
+                            empty.incrementAndGet();
+                            continue;
+                        }
+                        if (dir != null) {
+                            final File f = new File(dir, z + "/" + x + "/" + y + ".png");
+                            f.getParentFile().mkdirs();
+                            ImageIO.write(img = image(argb, size, img), "png", f);
+                        }
+                    }
+                    return null;
+                });
+            for (Future<Void> f : exec.invokeAll(workers)) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException)
+                        throw new UncheckedIOException((IOException) e.getCause());
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        st.tiles = tiles.size();
+        st.empty = empty.get();
+        st.seconds = sw.stop().getSeconds();
+        logger.info("{} tiles ({} empty) of zoom {}-{} on {} threads in {}s: {} tiles/s",
+                st.tiles, st.empty, minZoom, maxZoom, threads, st.seconds, st.tilesPerSecond());
+        return st;
+    }
+
+    @Override
+    public void close() {
+        for (Surface s : surfaces)
+            s.close();
+        surfaces.clear();
+        pool.clear();
+    }
+
+    /** draw order of {@link BatchRenderer}: by layer, areas before lines, then by mode */
+    private static final Comparator<Vis> ORDER = Comparator.comparingInt(v -> {
+        final int mode = v.mode();
+        return ((v.layer() * 2 + (mode == GL.GL_TRIANGLES ? 0 : 1)) << 4) | mode;
+    });
+
+    /**
+     * A reusable render target.  {@link #render} collects the batches; subclasses draw each
+     * one as it is complete.  Not thread safe; {@link TileRenderer} hands each to one thread at a time.
+     */
+    abstract static class Surface {
+        final int size;
+        private final List<Vis> visible = new ArrayList<>();
+        /** x, y, r, g, b per vertex ({@link BatchRenderer#STRIDE}), relative to the box' corner */
+        FloatBuffer vertices = Buffers.newDirectFloatBuffer(1 << 14);
+        /** element indices of indexed triangles */
+        IntBuffer indices = Buffers.newDirectIntBuffer(1 << 12);
+        /** first vertex and vertex count of each line strip */
+        final IntArrayList first = new IntArrayList(), count = new IntArrayList();
+
+        Surface(int size) {
+            this.size = size;
+        }
+
+        /** @return the number of Vis drawn */
+        int render(VisIndex index, double minX, double minY, double maxX, double maxY) {
+            visible.clear();
+            index.query((float) minX, (float) minY, (float) maxX, (float) maxY, null, visible::add);
+            final int level = Lod.level((maxX - minX) / size);
+            begin(minX, minY, maxX, maxY);
+            if (visible.isEmpty()) {
+                end();
+                return 0;
+            }
+            visible.sort(ORDER);
+
+            int drawn = 0, mode = -1, at = 0;
+            reset();
+            for (Vis v : visible) {
+                final int n = v.vertices(level);
+                if (n == 0)
+                    continue;
+                final int m = v.mode();
+                if (m != mode && at > 0) {
+                    flush(mode, at);
+                    reset();
+                    at = 0;
+                }
+                mode = m;
+                if (vertices.remaining() < n * BatchRenderer.STRIDE)
+                    vertices = grow(vertices, n * BatchRenderer.STRIDE);
+                v.write(vertices, level, minX, minY);
+                final int ni = v.indices(level);
+                if (ni > 0) {
+                    if (indices.remaining() < ni)
+                        indices = grow(indices, ni);
+                    v.writeIndices(indices, at, level);
+                } else if (m != GL.GL_LINES && m != GL.GL_TRIANGLES) {
+                    first.add(at);
+                    count.add(n);
+                }
+                at += n;
+                drawn++;
+            }
+            if (at > 0)
+                flush(mode, at);
+            end();
+            return drawn;
+        }
+
+        private void reset() {
+            vertices.clear();
+            indices.clear();
+            first.clear();
+            count.clear();
+        }
+
+        private void flush(int mode, int verts) {
+            vertices.flip();
+            indices.flip();
+            draw(mode, verts);
+        }
+
+        private static FloatBuffer grow(FloatBuffer b, int more) {
+            final FloatBuffer g = Buffers.newDirectFloatBuffer(Math.max(b.capacity() * 2, b.position() + more));
+            b.flip();
+            return g.put(b);
+        }
+
+        private static IntBuffer grow(IntBuffer b, int more) {
+            final IntBuffer g = Buffers.newDirectIntBuffer(Math.max(b.capacity() * 2, b.position() + more));
+            b.flip();
+            return g.put(b);
+        }
+
+        /** clears to {@link #BACKGROUND} and maps the box onto the surface */
+        abstract void begin(double minX, double minY, double maxX, double maxY);
+
+        /**
+         * draws the flipped {@link #vertices} in one mode: indexed by {@link #indices} if it
+         * has any, as strips by {@link #first} and {@link #count} if they have any, else in order
+         */
+        abstract void draw(int mode, int verts);
+
+        abstract void end();
+
+        /** copies the pixels of the last render, row 0 at the top */
+        abstract void read(int[] argb);
+
+        void close() {
+        }
+    }
+
+    /** draws into a BufferedImage, merging runs of one color into a single path */
+    static final class Java2DSurface extends Surface {
+        private final BufferedImage image;
+        private final int[] pixels;
+        private final Graphics2D g;
+        private final Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, 1024);
+        private double sx, sy;
+        /** color and kind of the path being collected, if painting */
+        private int color;
+        private boolean fill, painting;
+
+        Java2DSurface(int size) {
+            super(size);
+            image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setStroke(new BasicStroke(1));
+        }
+
+        @Override
+        void begin(double minX, double minY, double maxX, double maxY) {
+            Arrays.fill(pixels, BACKGROUND);
+            sx = size / (maxX - minX);
+            sy = size / (maxY - minY);
+        }
+
+        private float x(int v) {
+            return (float) (vertices.get(v * BatchRenderer.STRIDE) * sx);
+        }
+
+        private float y(int v) {
+            return (float) (size - vertices.get(v * BatchRenderer.STRIDE + 1) * sy);
+        }
+
+        private int rgb(int v) {
+            final int o = v * BatchRenderer.STRIDE + 2;
+            return 0xff000000 | Math.round(vertices.get(o) * 255) << 16 | Math.round(vertices.get(o + 1) * 255) << 8 | Math.round(vertices.get(o + 2) * 255);
+        }
+
+        /** starts a primitive of the vertex' color, drawing the path so far if the color changes */
+        private void color(int v, boolean fill) {
+            final int c = rgb(v);
+            if (!painting || c != color || fill != this.fill) {
+                paint();
+                color = c;
+                this.fill = fill;
+                painting = true;
+            }
+        }
+
+        private void paint() {
+            if (!painting || path.getCurrentPoint() == null)
+                return;
+            g.setColor(new Color(color, true));
+            if (fill)
+                g.fill(path);
+            else
+                g.draw(path);
+            path.reset();
+        }
+
+        @Override
+        void draw(int mode, int verts) {
+            if (mode == GL.GL_TRIANGLES) {
+                final int n = indices.limit() > 0 ? indices.limit() : verts;
+                for (int i = 0; i + 2 < n; i += 3) {
+                    final int a = indices.limit() > 0 ? indices.get(i) : i,
+                              b = indices.limit() > 0 ? indices.get(i + 1) : i + 1,
+                              c = indices.limit() > 0 ? indices.get(i + 2) : i + 2;
+                    color(a, true);
+                    path.moveTo(x(a), y(a));
+                    path.lineTo(x(b), y(b));
+                    path.lineTo(x(c), y(c));
+                    path.closePath();
+                }
+            } else if (first.isEmpty()) {
+                for (int i = 0; i + 1 < verts; i += 2) {
+                    color(i, false);
+                    path.moveTo(x(i), y(i));
+                    path.lineTo(x(i + 1), y(i + 1));
+                }
+            } else {
+                for (int s = 0; s < first.size(); s++) {
+                    final int f = first.get(s), e = f + count.get(s);
+                    color(f, false);
+                    path.moveTo(x(f), y(f));
+                    for (int i = f + 1; i < e; i++)
+                        path.lineTo(x(i), y(i));
+                }
+            }
+        }
+
+        @Override
+        void end() {
+            paint();
+            painting = false;
+        }
+
+        @Override
+        void read(int[] argb) {
+            System.arraycopy(pixels, 0, argb, 0, pixels.length);
+        }
+
+        @Override
+        void close() {
+            g.dispose();
+        }
+    }
+
+    /** draws from client side vertex arrays into an offscreen drawable, made current per render */
+    static final class GLSurface extends Surface {
+        private final GLOffscreenAutoDrawable drawable;
+        private final IntBuffer pixels;
+        private GL2 gl;
+
+        GLSurface(int size) {
+            super(size);
+            GLProfile p = GLProfile.get(GLProfile.GL2);
+            GLCapabilities c = new GLCapabilities(p);
+            c.setOnscreen(false);
+            //single sampled and single buffered: glReadPixels reads what was drawn, with no
+            //multisample resolve or buffer swap in between
+            c.setDoubleBuffered(false);
+            drawable = GLDrawableFactory.getFactory(p).createOffscreenAutoDrawable(null, c, null, size, size);
+            drawable.display(); //realizes the drawable and creates its context
+            pixels = Buffers.newDirectIntBuffer(size * size);
+        }
+
+        @Override
+        void begin(double minX, double minY, double maxX, double maxY) {
+            if (drawable.getContext().makeCurrent() == GLContext.CONTEXT_NOT_CURRENT)
+                throw new IllegalStateException("cannot make the offscreen context current");
+            gl = drawable.getGL().getGL2();
+            gl.glViewport(0, 0, size, size);
+            gl.glClearColor((BACKGROUND >> 16 & 0xff) / 255f, (BACKGROUND >> 8 & 0xff) / 255f, (BACKGROUND & 0xff) / 255f, 1);
+            gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+            gl.glMatrixMode(GLMatrixFunc.GL_PROJECTION);
+            gl.glLoadIdentity();
+            //vertices are relative to the corner
+            gl.glOrtho(0, maxX - minX, 0, maxY - minY, -1, 1);
+            gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+            gl.glLoadIdentity();
+            gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+            gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+        }
+
+        @Override
+        void draw(int mode, int verts) {
+            final int stride = BatchRenderer.STRIDE * Buffers.SIZEOF_FLOAT;
+            gl.glVertexPointer(2, GL.GL_FLOAT, stride, vertices);
+            gl.glColorPointer(3, GL.GL_FLOAT, stride, vertices.duplicate().position(2));
+            if (indices.limit() > 0)
+                gl.glDrawElements(mode, indices.limit(), GL.GL_UNSIGNED_INT, indices);
+            else if (!first.isEmpty())
+                gl.glMultiDrawArrays(mode, first.buffer, 0, count.buffer, 0, first.size());
+            else
+                gl.glDrawArrays(mode, 0, verts);
+        }
+
+        @Override
+        void end() {
+            gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+            gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+            pixels.clear();
+            //BGRA as 8_8_8_8_REV is 0xAARRGGBB per int, bottom row first
+            gl.glReadPixels(0, 0, size, size, GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, pixels);
+            drawable.getContext().release();
+            gl = null;
+        }
+
+        @Override
+        void read(int[] argb) {
+            for (int row = 0; row < size; row++) {
+                pixels.position((size - 1 - row) * size);
+                pixels.get(argb, row * size, size);
+            }
+        }
+
+        @Override
+        void close() {
+            drawable.destroy();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package netvr;
+
+import com.carrotsearch.hppc.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Ear clipping triangulation of a simple polygon with holes, run once per area at ingest.
+ * Holes are first joined to the outer ring by a bridge edge from their rightmost vertex,
+ * then the merged ring is clipped.  O(n^2), which is fine for OSM areas.  Invalid input is
+ * never filled outside its outline: a hole without a clean bridge is left out, and once no
+ * ear is left (self intersections) only the triangles clipped so far are kept.
+ */
+final class Triangulator {
+
+    private Triangulator() {
+    }
+
+    /**
+     * @param xy    interleaved x,y vertices, fixed point
+     * @param n     vertex count
+     * @param holes vertex index where each hole ring starts; the outer ring is [0, holes[0])
+     * @return triangle vertex indices (3 per triangle), relative to the first vertex
+     */
+    static int[] triangulate(int[] xy, int n, int[] holes, int holeCount) {
+        IntArrayList poly = ring(xy, 0, holeCount > 0 ? holes[0] : n, true);
+        if (poly.size() < 3)
+            return new int[0];
+
+        if (holeCount > 0) {
+            IntArrayList[] hh = new IntArrayList[holeCount];
+            for (int h = 0; h < holeCount; h++)
+                hh[h] = ring(xy, holes[h], h + 1 < holeCount ? holes[h + 1] : n, false);
+            //rightmost holes first, so later bridges see earlier ones as part of the outline
+            Arrays.sort(hh, (a, b) -> Integer.compare(maxX(xy, b), maxX(xy, a)));
+            for (IntArrayList h : hh)
+                if (h.size() >= 3)
+                    bridge(xy, poly, h);
+        }
+
+        return clip(xy, poly);
+    }
+
+    /** ring indices without the closing duplicate, oriented CCW (outer) or CW (hole) */
+    private static IntArrayList ring(int[] xy, int from, int to, boolean ccw) {
+        if (to - from > 1 && xy[from * 2] == xy[(to - 1) * 2] && xy[from * 2 + 1] == xy[(to - 1) * 2 + 1])
+            to--;
+        IntArrayList r = new IntArrayList(to - from);
+        for (int i = from; i < to; i++)
+            r.add(i);
+        if ((area(xy, r) > 0) != ccw)
+            reverse(r);
+        return r;
+    }
+
+    private static double area(int[] xy, IntArrayList r) {
+        double a = 0;
+        for (int i = 0, n = r.size(), j = n - 1; i < n; j = i++) {
+            int p = r.get(j) * 2, q = r.get(i) * 2;
+            a += (double) xy[p] * xy[q + 1] - (double) xy[q] * xy[p + 1];
+        }
+        return a / 2;
+    }
+
+    private static void reverse(IntArrayList r) {
+        for (int i = 0, j = r.size() - 1; i < j; i++, j--) {
+            int t = r.get(i);
+            r.set(i, r.get(j));
+            r.set(j, t);
+        }
+    }
+
+    private static int maxX(int[] xy, IntArrayList r) {
+        int m = Integer.MIN_VALUE;
+        for (int i = 0; i < r.size(); i++)
+            m = Math.max(m, xy[r.get(i) * 2]);
+        return m;
+    }
+
+    /** splices the hole into poly through the nearest outline vertex visible from its rightmost vertex */
+    private static void bridge(int[] xy, IntArrayList poly, IntArrayList hole) {
+        int mi = 0;
+        for (int i = 1; i < hole.size(); i++)
+            if (xy[hole.get(i) * 2] > xy[hole.get(mi) * 2]) mi = i;
+        final int m = hole.get(mi);
+        final double mx = xy[m * 2], my = xy[m * 2 + 1];
+
+        //prefer vertices right of m: a bridge going right cannot cross the hole's interior
+        int best = -1;
+        for (int pass = 0; pass < 2 && best < 0; pass++) {
+            double bestD = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < poly.size(); i++) {
+                int p = poly.get(i);
+                if (pass == 0 && xy[p * 2] < mx)
+                    continue;
+                double dx = xy[p * 2] - mx, dy = xy[p * 2 + 1] - my;
+                double d = dx * dx + dy * dy;
+                if (d < bestD && visible(xy, poly, m, p) && visible(xy, hole, m, p)) {
+                    bestD = d;
+                    best = i;
+                }
+            }
+        }
+        if (best < 0)
+            return; //no clean bridge (invalid input); leave the hole out
+
+        IntArrayList merged = new IntArrayList(poly.size() + hole.size() + 2);
+        for (int i = 0; i <= best; i++)
+            merged.add(poly.get(i));
+        for (int k = 0; k <= hole.size(); k++)
+            merged.add(hole.get((mi + k) % hole.size()));
+        for (int i = best; i < poly.size(); i++)
+            merged.add(poly.get(i));
+        poly.clear();
+        poly.addAll(merged);
+    }
+
+    /** true if segment a-b crosses no edge of the ring, ignoring edges touching a or b */
+    private static boolean visible(int[] xy, IntArrayList r, int a, int b) {
+        for (int i = 0, n = r.size(), j = n - 1; i < n; j = i++) {
+            int c = r.get(j), d = r.get(i);
+            if (same(xy, c, a) || same(xy, c, b) || same(xy, d, a) || same(xy, d, b))
+                continue;
+            if (intersects(xy, a, b, c, d))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean intersects(int[] xy, int a, int b, int c, int d) {
+        double o1 = cross(xy, a, b, c), o2 = cross(xy, a, b, d), o3 = cross(xy, c, d, a), o4 = cross(xy, c, d, b);
+        return ((o1 > 0) != (o2 > 0)) && ((o3 > 0) != (o4 > 0)) && o1 != 0 && o2 != 0 && o3 != 0 && o4 != 0;
+    }
+
+    private static boolean same(int[] xy, int a, int b) {
+        return a == b || (xy[a * 2] == xy[b * 2] && xy[a * 2 + 1] == xy[b * 2 + 1]);
+    }
+
+    /** z of (b - a) x (c - a); positive if a,b,c turn left */
+    private static double cross(int[] xy, int a, int b, int c) {
+        double ax = xy[a * 2], ay = xy[a * 2 + 1];
+        return (xy[b * 2] - ax) * (xy[c * 2 + 1] - ay) - (xy[b * 2 + 1] - ay) * (xy[c * 2] - ax);
+    }
+
+    private static int[] clip(int[] xy, IntArrayList poly) {
+        int n = poly.size();
+        final int[] v = poly.toArray();
+        final int[] prev = new int[n], next = new int[n];
+        for (int i = 0; i < n; i++) {
+            prev[i] = (i + n - 1) % n;
+            next[i] = (i + 1) % n;
+        }
+
+        final IntArrayList tri = new IntArrayList((n - 2) * 3);
+        int i = 0, stall = 0;
+        while (n > 3) {
+            int p = prev[i], q = next[i];
+            if (ear(xy, v, p, i, q, next)) {
+                tri.add(v[p], v[i], v[q]);
+                next[p] = q;
+                prev[q] = p;
+                n--;
+                stall = 0;
+                i = q;
+            } else if (++stall > n) {
+                //no ear left (self intersecting input); any other triangle could lie outside
+                return tri.toArray();
+            } else {
+                i = q;
+            }
+        }
+        if (cross(xy, v[prev[i]], v[i], v[next[i]]) != 0)
+            tri.add(v[prev[i]], v[i], v[next[i]]);
+        return tri.toArray();
+    }
+
+    private static boolean ear(int[] xy, int[] v, int p, int i, int q, int[] next) {
+        final int a = v[p], b = v[i], c = v[q];
+        if (cross(xy, a, b, c) <= 0)
+            return false; //reflex or degenerate
+        for (int k = next[q]; k != p; k = next[k]) {
+            int t = v[k];
+            if (same(xy, t, a) || same(xy, t, b) || same(xy, t, c))
+                continue;
+            if (cross(xy, a, b, t) >= 0 && cross(xy, b, c, t) >= 0 && cross(xy, c, a, t) >= 0)
+                return false;
+        }
+        return true;
+    }
+}
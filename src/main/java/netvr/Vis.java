@@ -3,8 +3,51 @@ package netvr;
 import com.bulletphysics.collision.broadphase.DbvtAabbMm;
 import com.jogamp.opengl.GL2;
 
+import javax.vecmath.Vector3f;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
 public abstract class Vis {
-    public abstract DbvtAabbMm box();
+
+    /** batch cell assigned by {@link BatchRenderer}, or -1 */
+    int cell = -1;
+    /** position in its batch of that cell */
+    int member = -1;
+
+    public DbvtAabbMm box() {
+        float[] b = new float[4];
+        bounds(b);
+        return new DbvtAabbMm().set(new Vector3f(b[0], b[1], 0), new Vector3f(b[2], b[3], 0));
+    }
+
+    /** minX, minY, maxX, maxY */
+    public abstract void bounds(float[] b);
 
     public abstract void draw(GL2 gl);
+
+    /** GL primitive of the vertices emitted by {@link #write}, the same at every level */
+    public abstract int mode();
+
+    /** draw order; higher layers are drawn over lower ones (see {@link WayStyle#layer}) */
+    public int layer() {
+        return 0;
+    }
+
+    /** number of vertices emitted by {@link #write} at a {@link Lod} level; 0 if dropped there */
+    public abstract int vertices(int level);
+
+    /**
+     * appends x, y, r, g, b per vertex ({@link BatchRenderer#STRIDE} floats), with x, y
+     * relative to the origin so they keep full float precision near it
+     */
+    public abstract void write(FloatBuffer b, int level, double originX, double originY);
+
+    /** number of element indices emitted by {@link #writeIndices}, or 0 if drawn unindexed */
+    public int indices(int level) {
+        return 0;
+    }
+
+    /** appends element indices, offset by the batch position of this Vis' first vertex */
+    public void writeIndices(IntBuffer b, int base, int level) {
+    }
 }
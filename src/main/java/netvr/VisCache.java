@@ -0,0 +1,283 @@
+package netvr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary cache of the way geometry extracted by {@link GraphOSM}, stored next to the
+ * GraphHopper graph so a warm start maps it back in instead of re-reading the OSM file.
+ * Ways are grouped into {@link #TILE} degree tiles, each of which loads independently.
+ * <p>
+ * Layout (little endian): magic, version, source size, source mtime, {@link WayStyle#hash},
+ * entry count, tile count; per tile its x, y, bounds, way count, byte offset and length; then
+ * the tiles, each in the {@link MappedGeometry} layout.  Each way is {@link Lod#LEVELS}
+ * consecutive entries.  Vertices are {@link Quantized}: fixed point, delta and varint coded
+ * from the tile's origin.  Tiles are mapped one by one and read in place, so the geometry of
+ * a warm start stays off the heap.
+ * Edges are not stored; they are rebuilt from the already persisted GraphHopper graph.
+ */
+class VisCache {
+    private static final Logger logger = LoggerFactory.getLogger(VisCache.class);
+
+    static final String NAME = "vis";
+    private static final int MAGIC = 0x56495343; //"VISC"
+    private static final int VERSION = 9;
+    private static final int HEADER = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+    private static final int TILE_ENTRY = 4 + 4 + 16 + 4 + 8 + 8;
+
+    /** tile size, in degrees */
+    static final float TILE = 0.25f;
+
+    final File file;
+    private final File source;
+    private final int styles;
+    private FileChannel channel;
+
+    VisCache(File dir, File source, WayStyle styles) {
+        this.file = new File(dir, NAME);
+        this.source = source;
+        this.styles = styles.hash();
+    }
+
+    /** a group of ways stored contiguously */
+    static final class Tile {
+        final int x, y, ways;
+        final long offset, bytes;
+        final float minX, minY, maxX, maxY;
+
+        Tile(int x, int y, int ways, long offset, long bytes, float minX, float minY, float maxX, float maxY) {
+            this.x = x;
+            this.y = y;
+            this.ways = ways;
+            this.offset = offset;
+            this.bytes = bytes;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        /** squared distance from the point to the tile's bounds */
+        double distanceSq(float px, float py) {
+            double dx = Math.max(0, Math.max(minX - px, px - maxX)), dy = Math.max(0, Math.max(minY - py, py - maxY));
+            return dx * dx + dy * dy;
+        }
+    }
+
+    /** true if the cache exists and was written from the current source file and style rules */
+    boolean valid() {
+        if (!file.isFile() || file.length() < HEADER)
+            return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (Integer.reverseBytes(in.readInt()) != MAGIC || Integer.reverseBytes(in.readInt()) != VERSION)
+                return false;
+            long size = Long.reverseBytes(in.readLong()), mtime = Long.reverseBytes(in.readLong());
+            if (Integer.reverseBytes(in.readInt()) != styles)
+                return false;
+            if (!source.isFile()) {
+                logger.warn("ignoring cache {}: source {} is missing", file, source);
+                return false;
+            }
+            return size == source.length() && mtime == source.lastModified();
+        } catch (IOException e) {
+            logger.warn("unreadable {}: {}", file, e.toString());
+            return false;
+        }
+    }
+
+    void write(WayGeometry g) throws IOException {
+        final int entries = g.size(), ways = entries / Lod.LEVELS;
+
+        //group ways by the tile of their level 0 center
+        final long[] order = new long[ways];
+        final long[] bytes = new long[ways];
+        final int[] entryBytes = new int[entries];
+        float[] b = new float[4];
+        int[] xy = new int[256];
+        for (int w = 0; w < ways; w++) {
+            final int e0 = w * Lod.LEVELS;
+            g.bounds(e0, b);
+            final int key = tileKey((b[0] + b[2]) / 2, (b[1] + b[3]) / 2);
+            order[w] = ((long) key << 32) | w;
+            final int x0 = origin(key >> 16), y0 = origin((short) key);
+            for (int e = e0; e < e0 + Lod.LEVELS; e++) {
+                xy = fixed(g, e, xy);
+                final int n = g.count(e), tn = g.triangles(e);
+                int size = Quantized.varintSize(g.style(e)) + Quantized.varintSize(n) + Quantized.varintSize(tn)
+                        + Quantized.size(xy, n, x0, y0);
+                for (int t = 0; t < tn; t++)
+                    size += Quantized.varintSize(g.triangle(e, t));
+                entryBytes[e] = size;
+                bytes[w] += size;
+            }
+        }
+        Arrays.sort(order);
+        int tiles = 0;
+        for (int i = 0; i < ways; i++)
+            if (i == 0 || (order[i] >> 32) != (order[i - 1] >> 32))
+                tiles++;
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(NAME, ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(Integer.reverseBytes(MAGIC));
+                out.writeInt(Integer.reverseBytes(VERSION));
+                out.writeLong(Long.reverseBytes(source.length()));
+                out.writeLong(Long.reverseBytes(source.lastModified()));
+                out.writeInt(Integer.reverseBytes(styles));
+                out.writeInt(Integer.reverseBytes(ways * Lod.LEVELS));
+                out.writeInt(Integer.reverseBytes(tiles));
+
+                long offset = HEADER + (long) tiles * TILE_ENTRY;
+                for (int i = 0; i < ways; ) {
+                    final int key = (int) (order[i] >> 32);
+                    float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY,
+                          maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+                    long size = 0;
+                    int j = i;
+                    for (; j < ways && (int) (order[j] >> 32) == key; j++) {
+                        final int w = (int) order[j];
+                        g.bounds(w * Lod.LEVELS, b);
+                        minX = Math.min(minX, b[0]); minY = Math.min(minY, b[1]);
+                        maxX = Math.max(maxX, b[2]); maxY = Math.max(maxY, b[3]);
+                        size += 16 + 4L * Lod.LEVELS + bytes[w];
+                    }
+                    if (size > Integer.MAX_VALUE)
+                        throw new IOException("tile " + (key >> 16) + "," + (short) key + " exceeds 2GB; reduce TILE");
+                    out.writeInt(Integer.reverseBytes(key >> 16));
+                    out.writeInt(Integer.reverseBytes((short) key));
+                    writeFloat(out, minX);
+                    writeFloat(out, minY);
+                    writeFloat(out, maxX);
+                    writeFloat(out, maxY);
+                    out.writeInt(Integer.reverseBytes(j - i));
+                    out.writeLong(Long.reverseBytes(offset));
+                    out.writeLong(Long.reverseBytes(size));
+                    offset += size;
+                    i = j;
+                }
+
+                for (int i = 0; i < ways; ) {
+                    final int key = (int) (order[i] >> 32);
+                    int j = i;
+                    while (j < ways && (int) (order[j] >> 32) == key)
+                        j++;
+                    //level 0 bounds, then entry offsets, then entries
+                    for (int k = i; k < j; k++) {
+                        g.bounds((int) order[k] * Lod.LEVELS, b);
+                        for (float f : b)
+                            writeFloat(out, f);
+                    }
+                    int at = (j - i) * (16 + 4 * Lod.LEVELS);
+                    for (int k = i; k < j; k++)
+                        for (int e = (int) order[k] * Lod.LEVELS, l = 0; l < Lod.LEVELS; l++, e++) {
+                            out.writeInt(Integer.reverseBytes(at));
+                            at += entryBytes[e];
+                        }
+                    final int x0 = origin(key >> 16), y0 = origin((short) key);
+                    for (int k = i; k < j; k++)
+                        xy = writeWay(out, g, (int) order[k] * Lod.LEVELS, x0, y0, xy);
+                    i = j;
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            //still there if anything failed before the move
+            tmp.delete();
+        }
+        logger.info("wrote {} ways in {} tiles to {} ({} bytes)", ways, tiles, file, file.length());
+    }
+
+    /**
+     * the entries of one way, in the {@link MappedGeometry} layout
+     * @return the scratch array, grown if needed
+     */
+    private static int[] writeWay(DataOutputStream out, WayGeometry g, int e0, int x0, int y0, int[] xy) throws IOException {
+        for (int e = e0; e < e0 + Lod.LEVELS; e++) {
+            xy = fixed(g, e, xy);
+            final int n = g.count(e), tn = g.triangles(e);
+            Quantized.writeVarint(out, g.style(e));
+            Quantized.writeVarint(out, n);
+            Quantized.writeVarint(out, tn);
+            Quantized.write(out, xy, n, x0, y0);
+            for (int t = 0; t < tn; t++)
+                Quantized.writeVarint(out, g.triangle(e, t));
+        }
+        return xy;
+    }
+
+    /** the entry's vertices in fixed point; returns xy, or a larger array if it was too small */
+    private static int[] fixed(WayGeometry g, int e, int[] xy) {
+        final int n = g.count(e);
+        if (xy.length < n * 2)
+            xy = new int[n * 2];
+        g.fixed(e, xy);
+        return xy;
+    }
+
+    /** fixed point origin of a tile row or column */
+    static int origin(int tile) {
+        return Quantized.fix(tile * (double) TILE);
+    }
+
+    /** tile x in the high, tile y in the low 16 bits */
+    static int tileKey(float x, float y) {
+        return ((int) Math.floor(x / TILE) << 16) | ((int) Math.floor(y / TILE) & 0xffff);
+    }
+
+    /** opens the cache and returns its tile table */
+    List<Tile> open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer m = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        final int n = m.getInt(HEADER - 4);
+        m = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, (long) n * TILE_ENTRY).order(ByteOrder.LITTLE_ENDIAN);
+        final List<Tile> tiles = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int x = m.getInt(), y = m.getInt();
+            float minX = m.getFloat(), minY = m.getFloat(), maxX = m.getFloat(), maxY = m.getFloat();
+            int ways = m.getInt();
+            long offset = m.getLong(), bytes = m.getLong();
+            tiles.add(new Tile(x, y, ways, offset, bytes, minX, minY, maxX, maxY));
+        }
+        return tiles;
+    }
+
+    /**
+     * maps one tile of the opened cache and adds its ways to the target's index as one batch;
+     * only the bounds are read now.  Safe to call from several threads.
+     */
+    int read(Tile t, GraphOSM target) throws IOException {
+        final MappedGeometry g = new MappedGeometry(
+                channel.map(FileChannel.MapMode.READ_ONLY, t.offset, t.bytes), t.ways,
+                origin(t.x), origin(t.y), target.geometry.styles);
+        final List<Vis> vv = new ArrayList<>(t.ways);
+        for (int w = 0; w < t.ways; w++)
+            vv.add(new WayVis(g, w * Lod.LEVELS, true));
+        target.ways.add(vv, g.boxes());
+        return t.ways;
+    }
+
+    /** mapped tiles stay readable after closing */
+    void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    private static void writeFloat(DataOutputStream out, float f) throws IOException {
+        out.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(f)));
+    }
+
+}
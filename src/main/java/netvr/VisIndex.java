@@ -0,0 +1,170 @@
+package netvr;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Spatial index of all {@link Vis}: a set of immutable {@link PackedIndex} parts, published as
+ * immutable {@link Snapshot}s through a single volatile field.  Queries read one snapshot and
+ * never lock, so the renderer neither blocks on nor sees half of a change.  Writers build
+ * every change off to the side and only publish under the lock: a prebuilt part, a batch of
+ * streamed items (e.g. a loaded tile) bulk loaded into a small part, or the merge of those
+ * batches by {@link #pack}.  Replaced snapshots are left to the garbage collector once the
+ * last query holding them returns.
+ * <p>
+ * Every {@link #PACK} batches are packed by the adding thread, unless a pack is running.
+ * A pack also merges the newest parts no larger than the result, so part sizes grow
+ * geometrically and a query visits about log n parts plus fewer than PACK batches.
+ */
+public class VisIndex {
+
+    /** batches pending before an add packs them */
+    static final int PACK = 16;
+
+    private volatile Snapshot snapshot = new Snapshot(newParts(0), newParts(0));
+    /** serializes packs, so adds can publish while one merges */
+    private final ReentrantLock packing = new ReentrantLock();
+
+    @SuppressWarnings("unchecked")
+    private static PackedIndex<Vis>[] newParts(int n) {
+        return new PackedIndex[n];
+    }
+
+    private static PackedIndex<Vis>[] append(PackedIndex<Vis>[] parts, PackedIndex<Vis> part) {
+        PackedIndex<Vis>[] p = Arrays.copyOf(parts, parts.length + 1);
+        p[p.length - 1] = part;
+        return p;
+    }
+
+    /** the parts a query sees at one moment; never changes */
+    public static final class Snapshot {
+        /** bulk loaded: prebuilt parts and packs */
+        final PackedIndex<Vis>[] parts;
+        /** one per batch added since the last pack */
+        final PackedIndex<Vis>[] batches;
+        private final int size;
+
+        Snapshot(PackedIndex<Vis>[] parts, PackedIndex<Vis>[] batches) {
+            this.parts = parts;
+            this.batches = batches;
+            int n = 0;
+            for (PackedIndex<Vis> p : parts)
+                n += p.size();
+            for (PackedIndex<Vis> p : batches)
+                n += p.size();
+            this.size = n;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int parts() {
+            return parts.length + batches.length;
+        }
+
+        /**
+         * visits items overlapping the box and the frustum (if not null)
+         * @return nodes tested
+         */
+        public int query(float minX, float minY, float maxX, float maxY, Frustum f, Consumer<? super Vis> each) {
+            int tested = 0;
+            for (PackedIndex<Vis> p : parts)
+                tested += p.query(minX, minY, maxX, maxY, f, each);
+            for (PackedIndex<Vis> p : batches)
+                tested += p.query(minX, minY, maxX, maxY, f, each);
+            return tested;
+        }
+    }
+
+    /** the current state; use one for several queries that must agree */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /** adds a prebuilt part, visible to the next query */
+    public void add(PackedIndex<Vis> part) {
+        if (part.size() == 0)
+            return;
+        synchronized (this) {
+            final Snapshot s = snapshot;
+            snapshot = new Snapshot(append(s.parts, part), s.batches);
+        }
+    }
+
+    /** @param b minX, minY, maxX, maxY per item */
+    public void add(List<? extends Vis> vv, float[] b) {
+        if (vv.isEmpty())
+            return;
+        final PackedIndex<Vis> batch = PackedIndex.build(vv, b);
+        final int pending;
+        synchronized (this) {
+            final Snapshot s = snapshot;
+            snapshot = new Snapshot(s.parts, append(s.batches, batch));
+            pending = snapshot.batches.length;
+        }
+        if (pending >= PACK && packing.tryLock()) {
+            try {
+                packLocked();
+            } finally {
+                packing.unlock();
+            }
+        }
+    }
+
+    /**
+     * bulk loads the batches added so far and the newest parts no larger than them into one
+     * part, replacing them in a single step
+     */
+    public void pack() {
+        packing.lock();
+        try {
+            packLocked();
+        } finally {
+            packing.unlock();
+        }
+    }
+
+    private void packLocked() {
+        final Snapshot s = snapshot;
+        final PackedIndex<Vis>[] batches = s.batches;
+        if (batches.length == 0)
+            return;
+        int n = 0;
+        for (PackedIndex<Vis> p : batches)
+            n += p.size();
+        //only packs remove parts, so parts [from, s.parts.length) stay where they are
+        int from = s.parts.length;
+        while (from > 0 && s.parts[from - 1].size() <= n)
+            n += s.parts[--from].size();
+        final PackedIndex<Vis>[] merged = Arrays.copyOfRange(s.parts, from, s.parts.length + batches.length);
+        System.arraycopy(batches, 0, merged, s.parts.length - from, batches.length);
+        final PackedIndex<Vis> packed = PackedIndex.merge(merged);
+        synchronized (this) {
+            //parts and batches added meanwhile follow the merged ones
+            final Snapshot now = snapshot;
+            final PackedIndex<Vis>[] parts = Arrays.copyOf(now.parts, from + now.parts.length - s.parts.length + 1);
+            System.arraycopy(now.parts, s.parts.length, parts, from, now.parts.length - s.parts.length);
+            parts[parts.length - 1] = packed;
+            snapshot = new Snapshot(parts, Arrays.copyOfRange(now.batches, batches.length, now.batches.length));
+        }
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    public int parts() {
+        return snapshot.parts();
+    }
+
+    /**
+     * visits items overlapping the box and the frustum (if not null) in the current snapshot
+     * @return nodes tested
+     */
+    public int query(float minX, float minY, float maxX, float maxY, Frustum f, Consumer<? super Vis> each) {
+        return snapshot.query(minX, minY, maxX, maxY, f, each);
+    }
+}
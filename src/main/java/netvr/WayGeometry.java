@@ -0,0 +1,179 @@
+package netvr;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Packed vertex storage shared by all {@link WayVis}: one interleaved x,y (lon,lat) array of
+ * {@link Quantized} fixed point plus a start offset per way, so a way costs an index instead
+ * of a list of Vector3f, and keeps about 1cm anywhere on the globe, as in the cache.  Absolute
+ * fixed point is uniform in precision, so unlike floats it needs no per tile origin.  Areas
+ * also keep their triangulation as way-local vertex indices.
+ * A way added as a {@link Lod.Pyramid} occupies {@link Lod#LEVELS} consecutive entries, one
+ * per level; the methods here address single entries.  Each entry carries a {@link WayStyle}
+ * id, resolved against {@link #styles}.
+ * Appends are synchronized; ways are immutable once added.
+ */
+public class WayGeometry implements Geometry {
+
+    private int[] xy;
+    /** vertex offset of way i; start[size] is the end of the last way */
+    private int[] start;
+    /** triangle vertex indices of all ways, relative to the way's first vertex */
+    private int[] tri;
+    /** offset into tri of way i; triStart[size] is the end of the last way */
+    private int[] triStart;
+    /** {@link WayStyle} id of way i */
+    private short[] style;
+    private int size;
+
+    /** the rules the style ids refer to */
+    public final WayStyle styles;
+
+    public WayGeometry() {
+        this(WayStyle.defaults());
+    }
+
+    public WayGeometry(WayStyle styles) {
+        this(1024, 64, styles);
+    }
+
+    public WayGeometry(int vertexCapacity, int wayCapacity) {
+        this(vertexCapacity, wayCapacity, WayStyle.defaults());
+    }
+
+    public WayGeometry(int vertexCapacity, int wayCapacity, WayStyle styles) {
+        this.styles = styles;
+        xy = new int[Math.max(2, vertexCapacity * 2)];
+        start = new int[Math.max(1, wayCapacity) + 1];
+        tri = new int[16];
+        triStart = new int[start.length];
+        style = new short[start.length];
+    }
+
+    /** appends the first n vertices of the interleaved fixed point xy array and returns the new way id */
+    public int add(int[] xy, int n) {
+        return add(xy, n, null, 0);
+    }
+
+    /**
+     * appends the first n vertices of the interleaved fixed point xy array and returns the new way id
+     * @param tris triangle indices relative to the first vertex (see {@link Triangulator}), or null for a line
+     * @param tn     number of tris used
+     */
+    public synchronized int add(int[] xy, int n, int[] tris, int tn) {
+        return append(xy, n, tris, tn, 0);
+    }
+
+    /** appends all levels of a way as consecutive entries and returns the first (level 0) */
+    public synchronized int add(Lod.Pyramid p, int style) {
+        final int id = size;
+        for (int l = 0; l < Lod.LEVELS; l++)
+            append(p.xy[l], p.n[l], p.tris[l], p.tn[l], style);
+        return id;
+    }
+
+    private int append(int[] xy, int n, int[] tris, int tn, int style) {
+        final int id = size;
+        final int from = start[id], to = from + n;
+        if (to * 2 > this.xy.length)
+            this.xy = Arrays.copyOf(this.xy, Math.max(to * 2, this.xy.length + (this.xy.length >> 1)));
+        if (id + 2 > start.length) {
+            start = Arrays.copyOf(start, start.length + (start.length >> 1) + 1);
+            triStart = Arrays.copyOf(triStart, start.length);
+            this.style = Arrays.copyOf(this.style, start.length);
+        }
+        final int tFrom = triStart[id];
+        if (tFrom + tn > tri.length)
+            tri = Arrays.copyOf(tri, Math.max(tFrom + tn, tri.length + (tri.length >> 1)));
+
+        System.arraycopy(xy, 0, this.xy, from * 2, n * 2);
+        if (tn > 0)
+            System.arraycopy(tris, 0, tri, tFrom, tn);
+        start[id + 1] = to;
+        triStart[id + 1] = tFrom + tn;
+        this.style[id] = (short) style;
+        size = id + 1;
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int vertices() {
+        return start[size];
+    }
+
+    public int start(int way) {
+        return start[way];
+    }
+
+    @Override
+    public int count(int way) {
+        return start[way + 1] - start[way];
+    }
+
+    /** number of triangle indices (3 per triangle); 0 for lines */
+    @Override
+    public int triangles(int way) {
+        return triStart[way + 1] - triStart[way];
+    }
+
+    /** i-th triangle index of the way, relative to its first vertex */
+    @Override
+    public int triangle(int way, int i) {
+        return tri[triStart[way] + i];
+    }
+
+    @Override
+    public WayStyle styles() {
+        return styles;
+    }
+
+    @Override
+    public int style(int way) {
+        return style[way];
+    }
+
+    @Override
+    public int fixedX(int way, int i) {
+        return xy[(start[way] + i) * 2];
+    }
+
+    @Override
+    public int fixedY(int way, int i) {
+        return xy[(start[way] + i) * 2 + 1];
+    }
+
+    /** copies the way's interleaved fixed point vertices into out */
+    public void fixed(int way, int[] out) {
+        System.arraycopy(xy, start[way] * 2, out, 0, count(way) * 2);
+    }
+
+    @Override
+    public void write(int way, double originX, double originY, float r, float g, float b, FloatBuffer out) {
+        Quantized.put(xy, start[way], start[way + 1], originX, originY, r, g, b, out);
+    }
+
+    /** minX, minY, maxX, maxY */
+    @Override
+    public void bounds(int way, float[] b) {
+        final int[] xy = this.xy;
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = start[way] * 2, e = start[way + 1] * 2; i < e; i += 2) {
+            final int x = xy[i], y = xy[i + 1];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        b[0] = (float) Quantized.deg(minX); b[1] = (float) Quantized.deg(minY);
+        b[2] = (float) Quantized.deg(maxX); b[3] = (float) Quantized.deg(maxY);
+    }
+
+    /** approximate heap bytes used by the arrays */
+    public long bytes() {
+        return 4L * xy.length + 4L * start.length + 4L * tri.length + 4L * triStart.length + 2L * style.length;
+    }
+}
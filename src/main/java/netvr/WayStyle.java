@@ -0,0 +1,176 @@
+package netvr;
+
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.graphhopper.reader.ReaderElement;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tag rules classifying OSM ways into styles (color, layer, filled or not), compiled once
+ * into per-key value tables so {@link #classify} does a few map lookups and no allocation.
+ * <p>
+ * One rule per line: {@code key=value[,value...] name #rrggbb layer [area]}, where value may
+ * be {@code *}, any value but {@code no} (as in {@code building=no}).  Keys are tried in the
+ * order they first appear; the first key matching the way decides, an exact value before
+ * {@code *}.  Ways matching no rule are dropped.
+ */
+public final class WayStyle {
+
+    public static final int NONE = -1;
+
+    /** above every way layer; used for routing graph edges */
+    public static final int TOP = 8;
+
+    /** highways are not listed: roads are drawn from the routing graph's edges */
+    static final String DEFAULT =
+            "building=* building #b4a48c 3 area\n" +
+            "natural=water,bay water #aad3df 1 area\n" +
+            "natural=wood,scrub,heath wood #add19e 0 area\n" +
+            "waterway=riverbank water #aad3df 1 area\n" +
+            "waterway=river,stream,canal waterway #aad3df 1\n" +
+            "leisure=park,garden,pitch,playground park #c8facc 0 area\n" +
+            "landuse=forest wood #add19e 0 area\n" +
+            "landuse=* landuse #d8d4c8 0 area\n" +
+            "railway=rail,light_rail,subway,tram rail #707070 2\n";
+
+    private static final WayStyle defaults = parse(DEFAULT);
+
+    private final String source;
+    private final String[] keys;
+    private final ObjectIntHashMap<String>[] values;
+    private final int[] wildcard;
+
+    private final String[] name;
+    private final int[] rgb;
+    private final byte[] layer;
+    private final boolean[] area;
+
+    @SuppressWarnings("unchecked")
+    private WayStyle(String source, List<String> keys, List<ObjectIntHashMap<String>> values, int[] wildcard,
+                     List<String> name, List<Integer> rgb, List<Integer> layer, List<Boolean> area) {
+        this.source = source;
+        this.keys = keys.toArray(new String[0]);
+        this.values = values.toArray(new ObjectIntHashMap[0]);
+        this.wildcard = wildcard;
+        final int n = name.size();
+        this.name = name.toArray(new String[0]);
+        this.rgb = new int[n];
+        this.layer = new byte[n];
+        this.area = new boolean[n];
+        for (int s = 0; s < n; s++) {
+            this.rgb[s] = rgb.get(s);
+            this.layer[s] = layer.get(s).byteValue();
+            this.area[s] = area.get(s);
+        }
+    }
+
+    public static WayStyle defaults() {
+        return defaults;
+    }
+
+    public static WayStyle load(Path file) throws IOException {
+        return parse(Files.readString(file));
+    }
+
+    /** compiles rules in the format described above; lines starting with # are comments */
+    public static WayStyle parse(String rules) {
+        final List<String> keys = new ArrayList<>();
+        final List<ObjectIntHashMap<String>> values = new ArrayList<>();
+        int[] wildcard = new int[0];
+        final List<String> name = new ArrayList<>();
+        final List<Integer> rgb = new ArrayList<>(), layer = new ArrayList<>();
+        final List<Boolean> area = new ArrayList<>();
+
+        int ln = 0;
+        for (String line : rules.split("\n")) {
+            ln++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            final String[] f = line.split("\\s+");
+            final int eq = f[0].indexOf('=');
+            if (f.length < 4 || eq <= 0 || !f[2].startsWith("#"))
+                throw new IllegalArgumentException("line " + ln + ": expected key=value name #rrggbb layer [area]: " + line);
+            final int lyr = Integer.parseInt(f[3]);
+            if (lyr < 0 || lyr >= TOP)
+                throw new IllegalArgumentException("line " + ln + ": layer must be in [0, " + TOP + "): " + line);
+
+            int s = name.indexOf(f[1]);
+            if (s < 0) {
+                s = name.size();
+                name.add(f[1]);
+                rgb.add(Integer.parseInt(f[2].substring(1), 16));
+                layer.add(lyr);
+                area.add(f.length > 4 && f[4].equals("area"));
+            }
+
+            final String key = f[0].substring(0, eq);
+            int k = keys.indexOf(key);
+            if (k < 0) {
+                k = keys.size();
+                keys.add(key);
+                values.add(new ObjectIntHashMap<>());
+                wildcard = Arrays.copyOf(wildcard, k + 1);
+                wildcard[k] = NONE;
+            }
+            for (String v : f[0].substring(eq + 1).split(",")) {
+                if (v.equals("*")) {
+                    if (wildcard[k] == NONE) wildcard[k] = s;
+                } else if (!values.get(k).containsKey(v)) {
+                    values.get(k).put(v, s);
+                }
+            }
+        }
+        if (name.size() > Short.MAX_VALUE)
+            throw new IllegalArgumentException("too many styles: " + name.size());
+        return new WayStyle(rules, keys, values, wildcard, name, rgb, layer, area);
+    }
+
+    /** style id of the way (or relation), or {@link #NONE} to drop it */
+    public int classify(ReaderElement way) {
+        final String[] keys = this.keys;
+        for (int k = 0; k < keys.length; k++) {
+            final Object v = way.getTag(keys[k], null);
+            if (v == null)
+                continue;
+            final int s = !(v instanceof String) ? wildcard[k] :
+                    values[k].getOrDefault((String) v, v.equals("no") ? NONE : wildcard[k]);
+            if (s != NONE)
+                return s;
+        }
+        return NONE;
+    }
+
+    public int size() {
+        return name.length;
+    }
+
+    public String name(int style) {
+        return name[style];
+    }
+
+    /** 0xrrggbb */
+    public int rgb(int style) {
+        return rgb[style];
+    }
+
+    /** draw order; higher layers are drawn on top */
+    public int layer(int style) {
+        return layer[style];
+    }
+
+    /** true if closed ways of this style are filled rather than outlined */
+    public boolean area(int style) {
+        return area[style];
+    }
+
+    /** identifies the rule set, so data classified with other rules can be detected */
+    public int hash() {
+        return source.hashCode();
+    }
+}
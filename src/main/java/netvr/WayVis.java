@@ -1,50 +1,87 @@
 package netvr;
 
-import com.bulletphysics.collision.broadphase.DbvtAabbMm;
-import com.carrotsearch.hppc.LongArrayList;
-import com.graphhopper.coll.LongIntMap;
-import com.graphhopper.reader.ReaderWay;
-import com.graphhopper.storage.NodeAccess;
 import com.jogamp.opengl.GL2;
 
-import javax.vecmath.Vector3f;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 public class WayVis extends Vis {
 
 
-    private final long[] nids;
-    final List<Vector3f> poly;
+    final Geometry g;
+    /** full resolution entry; with levels, followed by the {@link Lod} levels */
+    final int id;
+    private final boolean levels;
 
-    public WayVis(LongArrayList nodes, LongIntMap nodeMap, NodeAccess n) {
+    public WayVis(Geometry g, int id) {
+        this(g, id, false);
+    }
+
+    public WayVis(Geometry g, int id, boolean levels) {
+        this.g = g;
+        this.id = id;
+        this.levels = levels;
+    }
+
+    @Override
+    public void bounds(float[] b) {
+        g.bounds(id, b);
+    }
 
-        this.nids = nodes.toArray();
-        poly = new ArrayList<>(nids.length);
-        for (long X : nids) {
-            int x = getInternalNodeIdOfOsmNode(X, nodeMap);
-            if (x < 0) continue;
-            double lon = n.getLon(x), lat = n.getLat(x);
-            poly.add(new Vector3f((float)lon, (float)lat, 0));
+    @Override
+    public void draw(GL2 gl) {
+        final int tn = g.triangles(id);
+        final int c = g.styles().rgb(g.style(id));
+        gl.glBegin(mode());
+        gl.glColor3ub((byte) (c >> 16), (byte) (c >> 8), (byte) c);
+        if (tn > 0) {
+            for (int t = 0; t < tn; t++) {
+                int i = g.triangle(id, t);
+                gl.glVertex3f(g.x(id, i), g.y(id, i), 0);
+            }
+        } else {
+            for (int i = 0, n = g.count(id); i < n; i++)
+                gl.glVertex3f(g.x(id, i), g.y(id, i), 0);
         }
+        gl.glEnd();
     }
-    static int getInternalNodeIdOfOsmNode(long nodeOsmId, LongIntMap nodeMap) {
-        int id = nodeMap.get(nodeOsmId);
-        return id < -2 ? -id - 3 : -1;
+
+    /** areas are pre-triangulated at ingest; open ways are drawn as lines */
+    @Override
+    public int mode() {
+        return g.triangles(id) > 0 ? GL2.GL_TRIANGLES : GL2.GL_LINE_STRIP;
     }
 
     @Override
-    public DbvtAabbMm box() {
-        return new DbvtAabbMm().merge(poly);
+    public int layer() {
+        return g.styles().layer(g.style(id));
+    }
+
+    /** geometry entry of a level; levels follow the full resolution entry */
+    private int entry(int level) {
+        return levels ? id + level : id;
     }
 
     @Override
-    public void draw(GL2 gl) {
-        gl.glBegin(GL2.GL_POLYGON);
-        gl.glColor3f(0.5f, 0.5f, 0.5f);
-        for (Vector3f v : poly)
-            gl.glVertex3f(v.x, v.y, v.z);
+    public int vertices(int level) {
+        return g.count(entry(level));
+    }
 
-        gl.glEnd();
+    @Override
+    public void write(FloatBuffer b, int level, double originX, double originY) {
+        final int e = entry(level), c = g.styles().rgb(g.style(e));
+        g.write(e, originX, originY, ((c >> 16) & 0xff) / 255f, ((c >> 8) & 0xff) / 255f, (c & 0xff) / 255f, b);
+    }
+
+    @Override
+    public int indices(int level) {
+        return g.triangles(entry(level));
+    }
+
+    @Override
+    public void writeIndices(IntBuffer b, int base, int level) {
+        final int e = entry(level);
+        for (int t = 0, tn = g.triangles(e); t < tn; t++)
+            b.put(base + g.triangle(e, t));
     }
 }
@@ -0,0 +1,77 @@
+package netvr;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Renders synthetic ways and edges through {@link BatchRenderer} into an offscreen drawable,
+ * so it runs without a window or GPU (e.g. LIBGL_ALWAYS_SOFTWARE=1 with Mesa).
+ */
+public class BatchRendererTest {
+    public static void main(String[] args) {
+        final int w = 512, h = 512, ways = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        WayGeometry g = new WayGeometry();
+        EdgeStore edges = new EdgeStore(ways);
+        Random r = new Random(1);
+        float[] xy = new float[8];
+        int[] fixed = new int[8];
+        Vis[] vis = new Vis[ways * 2];
+        for (int i = 0; i < ways; i++) {
+            float x = r.nextFloat() * 2 - 1, y = r.nextFloat() * 2 - 1, s = 0.005f;
+            xy[0] = x; xy[1] = y; xy[2] = x + s; xy[3] = y; xy[4] = x + s; xy[5] = y + s; xy[6] = x; xy[7] = y + s;
+            for (int k = 0; k < 8; k++)
+                fixed[k] = Quantized.fix(xy[k]);
+            vis[i * 2] = new WayVis(g, g.add(fixed, 4));
+            edges.set(i, y, x, y + s * 4, x - s * 4);
+            edges.rgb(i, 0xff0000);
+            vis[i * 2 + 1] = new EdgeVis(edges, i);
+        }
+
+        GLProfile p = GLProfile.get(GLProfile.GL2);
+        GLCapabilities c = new GLCapabilities(p);
+        c.setOnscreen(false);
+        GLOffscreenAutoDrawable d = GLDrawableFactory.getFactory(p).createOffscreenAutoDrawable(null, c, null, w, h);
+        BatchRenderer b = new BatchRenderer(0.1f);
+        ByteBuffer pixels = Buffers.newDirectByteBuffer(w * h * 4);
+        //the context is only current inside the listener
+        String[] renderer = {null};
+        d.addGLEventListener(new GLEventListener() {
+            @Override public void init(GLAutoDrawable drawable) { }
+            @Override public void dispose(GLAutoDrawable drawable) { b.dispose(drawable.getGL().getGL2()); }
+            @Override public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) { }
+
+            @Override
+            public void display(GLAutoDrawable drawable) {
+                GL2 gl = drawable.getGL().getGL2();
+                renderer[0] = gl.glGetString(GL.GL_RENDERER);
+                gl.glClearColor(0, 0, 0, 1);
+                gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+                b.begin(0);
+                for (Vis v : vis)
+                    b.accept(v);
+                b.end(gl);
+                gl.glReadPixels(0, 0, w, h, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, pixels);
+            }
+        });
+
+        d.display(); //first frame uploads
+        int frames = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++)
+            d.display();
+        double ms = (System.nanoTime() - start) / 1.0e6 / frames;
+
+        int lit = 0;
+        for (int i = 0; i < w * h; i++)
+            if ((pixels.getInt(i * 4) & 0xffffff00) != 0) lit++;
+        System.out.printf("%s: %d vis, %d cells, %d draw calls, %.2f ms/frame, %d lit pixels%n",
+                renderer[0], vis.length, b.cellsDrawn, b.drawCalls, ms, lit);
+        d.destroy();
+        if (lit == 0)
+            throw new AssertionError("nothing rendered");
+    }
+}
@@ -0,0 +1,62 @@
+package netvr;
+
+import com.graphhopper.util.shapes.BBox;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BatchRouter} over {@link #QUERIES} random origin/destination pairs inside the graph's
+ * bounds, by thread count.  Each call snaps and routes the whole batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchRouterBenchmark {
+
+    /** see {@link SyntheticOsm#source} */
+    @Param({"town:60", "town:150"})
+    String source;
+
+    @Param({"1", "4"})
+    int threads;
+
+    static final int QUERIES = 1000;
+
+    GraphOSM osm;
+    BatchRouter router;
+    double[] pairs = new double[QUERIES * 4];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        osm = SyntheticOsm.load(SyntheticOsm.source(source), true);
+        final BBox b = osm.getGraphHopperStorage().getBounds();
+        final Random r = new Random(1);
+        for (int q = 0; q < QUERIES * 2; q++) {
+            pairs[q * 2] = b.minLat + r.nextDouble() * (b.maxLat - b.minLat);
+            pairs[q * 2 + 1] = b.minLon + r.nextDouble() * (b.maxLon - b.minLon);
+        }
+        router = new BatchRouter(osm);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticOsm.delete(osm);
+    }
+
+    @Benchmark
+    public int route() throws InterruptedException {
+        return router.route(pairs, threads).found();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(BatchRouterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
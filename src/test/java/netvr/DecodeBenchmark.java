@@ -0,0 +1,80 @@
+package netvr;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vertex decoding throughput of the {@link Quantized} delta + varint runs in a direct buffer
+ * (as mapped by {@link VisCache}) into camera-relative vertices of a direct upload buffer,
+ * versus copying the plain little endian floats they replace.  Scores are vertices per microsecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    static final int N = 100_000;
+
+    /** typical distance between way vertices, in 1e-7 degrees */
+    @Param({"500", "50000"})
+    int step;
+
+    ByteBuffer varints, floats;
+    int[] fixed = new int[N * 2];
+    FloatBuffer vertices = ByteBuffer.allocateDirect(N * BatchRenderer.STRIDE * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+    @Setup
+    public void setup() throws IOException {
+        Random r = new Random(1);
+        int x = Quantized.fix(-74.0), y = Quantized.fix(40.7);
+        for (int i = 0; i < N; i++) {
+            fixed[i * 2] = x += r.nextInt(step * 2 + 1) - step;
+            fixed[i * 2 + 1] = y += r.nextInt(step * 2 + 1) - step;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Quantized.write(out, fixed, N, 0, 0);
+        out.flush();
+        varints = ByteBuffer.allocateDirect(bytes.size()).put(bytes.toByteArray());
+        floats = ByteBuffer.allocateDirect(N * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < N * 2; i++)
+            floats.putFloat((float) Quantized.deg(fixed[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public FloatBuffer varint() {
+        Quantized.read(varints, 0, N, 0, 0, fixed);
+        vertices.clear();
+        Quantized.put(fixed, 0, N, -74.0, 40.7, 1, 1, 1, vertices);
+        return vertices;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public FloatBuffer plainFloats() {
+        final FloatBuffer f = floats.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(0).asFloatBuffer();
+        vertices.clear();
+        for (int i = 0; i < N; i++)
+            vertices.put(f.get()).put(f.get()).put(1).put(1).put(1);
+        return vertices;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DecodeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,117 @@
+package netvr;
+
+import com.bulletphysics.collision.broadphase.Dbvt;
+import com.bulletphysics.collision.broadphase.DbvtAabbMm;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.vecmath.Vector3f;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build time and viewport query throughput of the Bullet {@link Dbvt} versus the bulk loaded
+ * {@link PackedIndex}, over synthetic way-sized boxes spread across a city-sized area.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBenchmark {
+
+    @Param({"100000", "1000000"})
+    int n;
+
+    /** viewport width, in degrees */
+    @Param({"0.01", "0.1"})
+    float view;
+
+    static final float AREA = 1;
+    static final int QUERIES = 64;
+
+    List<Integer> items;
+    float[] bounds;
+    float[] queries;
+    Dbvt<Integer> dbvt;
+    PackedIndex<Integer> packed;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(1);
+        items = new ArrayList<>(n);
+        bounds = new float[n * 4];
+        for (int i = 0; i < n; i++) {
+            float x = r.nextFloat() * AREA, y = r.nextFloat() * AREA;
+            float w = r.nextFloat() * 0.001f, h = r.nextFloat() * 0.001f;
+            items.add(i);
+            bounds[i * 4] = x;
+            bounds[i * 4 + 1] = y;
+            bounds[i * 4 + 2] = x + w;
+            bounds[i * 4 + 3] = y + h;
+        }
+        queries = new float[QUERIES * 2];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = r.nextFloat() * (AREA - view);
+        dbvt = dbvt();
+        packed = PackedIndex.build(items, bounds);
+    }
+
+    Dbvt<Integer> dbvt() {
+        Dbvt<Integer> d = new Dbvt<>();
+        for (int i = 0; i < n; i++)
+            d.put(items.get(i), box(bounds[i * 4], bounds[i * 4 + 1], bounds[i * 4 + 2], bounds[i * 4 + 3]));
+        return d;
+    }
+
+    static DbvtAabbMm box(float minX, float minY, float maxX, float maxY) {
+        return new DbvtAabbMm().set(new Vector3f(minX, minY, 0), new Vector3f(maxX, maxY, 0));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object buildDbvt() {
+        return dbvt();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object buildPacked() {
+        return PackedIndex.build(items, bounds);
+    }
+
+    /** one pass over all viewports */
+    @Benchmark
+    public void queryDbvt(Blackhole bh) {
+        Dbvt.ICollide<Integer> c = new Dbvt.ICollide<>() {
+            @Override
+            protected void accept(Dbvt.Node<Integer> n) {
+                bh.consume(n.data);
+            }
+        };
+        for (int q = 0; q < QUERIES; q++) {
+            float x = queries[q * 2], y = queries[q * 2 + 1];
+            dbvt.collide(box(x, y, x + view, y + view), c);
+        }
+    }
+
+    @Benchmark
+    public void queryPacked(Blackhole bh) {
+        for (int q = 0; q < QUERIES; q++) {
+            float x = queries[q * 2], y = queries[q * 2 + 1];
+            packed.query(x, y, x + view, y + view, bh::consume);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IndexBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,76 @@
+package netvr;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OSM ingest: a full import of the routing graph and the ways (through
+ * {@code FullWayReader.processWay}), without CH or LM preparation, and adding already built
+ * ways to a fresh index through {@link GraphOSM#addAll} and packing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class IngestBenchmark {
+
+    /** see {@link SyntheticOsm#source} */
+    @Param({"bundled", "town:60"})
+    String source;
+
+    File osm;
+    List<Vis> ways;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        osm = SyntheticOsm.source(source);
+        final GraphOSM g = SyntheticOsm.load(osm, false);
+        ways = new ArrayList<>(g.ways.size());
+        g.ways.query(-180, -90, 180, 90, null, ways::add);
+        SyntheticOsm.delete(g);
+    }
+
+    @Benchmark
+    public int importAll() {
+        final GraphOSM g = SyntheticOsm.load(osm, false);
+        final int n = g.ways.size();
+        SyntheticOsm.delete(g);
+        return n;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 50)
+    public Object addAndPack(Sink sink) {
+        final GraphOSM g = sink.osm;
+        for (int i = 0; i < ways.size(); i += GraphOSM.BATCH)
+            g.addAll(ways.subList(i, Math.min(ways.size(), i + GraphOSM.BATCH)));
+        g.ways.pack();
+        return g.ways;
+    }
+
+    /** a fresh GraphOSM per call, created outside the measurement */
+    @State(Scope.Thread)
+    public static class Sink {
+        GraphOSM osm;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            osm = new GraphOSM();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IngestBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,118 @@
+package netvr;
+
+import com.graphhopper.routing.Dijkstra;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ev.BooleanEncodedValue;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.PMap;
+import com.graphhopper.util.shapes.BBox;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Isochrone} from random points inside the graph's bounds.  The setup checks sampled
+ * edges of a few of them against point-to-point Dijkstra: an edge's arrival is the time to
+ * reach the nearer endpoint it can be entered from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IsochroneBenchmark {
+
+    /** see {@link SyntheticOsm#source} */
+    @Param({"town:60", "town:150"})
+    String source;
+
+    @Param({"5", "15"})
+    int minutes;
+
+    static final int POINTS = 16;
+
+    GraphOSM osm;
+    Isochrone iso;
+    float[] limit;
+    Snap[] snaps = new Snap[POINTS];
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        osm = SyntheticOsm.load(SyntheticOsm.source(source), false);
+        final Graph graph = osm.getGraphHopperStorage();
+        final Weighting w = osm.createWeighting(osm.getProfiles().iterator().next(), new PMap());
+        final BBox b = graph.getBounds();
+        final Random r = new Random(1);
+        iso = new Isochrone(graph, w);
+        limit = new float[]{minutes * 60};
+        for (int p = 0; p < POINTS; p++) {
+            Snap s;
+            do {
+                s = osm.getLocationIndex().findClosest(b.minLat + r.nextDouble() * (b.maxLat - b.minLat),
+                        b.minLon + r.nextDouble() * (b.maxLon - b.minLon), EdgeFilter.ALL_EDGES);
+            } while (!s.isValid());
+            snaps[p] = s;
+        }
+
+        int mismatches = 0;
+        for (int p = 0; p < 3; p++)
+            mismatches += check(graph, w, snaps[p], iso.calc(snaps[p], limit), r);
+        if (mismatches > 0)
+            throw new AssertionError(mismatches + " edges differ");
+    }
+
+    /** compares 200 random edges with the Dijkstra time to their endpoints */
+    static int check(Graph graph, Weighting w, Snap snap, Isochrone.Result res, Random r) {
+        QueryGraph qGraph = QueryGraph.create(graph, snap);
+        final BooleanEncodedValue access = w.getFlagEncoder().getAccessEnc();
+        final float limit = res.rings[res.rings.length - 1];
+        int mismatches = 0;
+        for (int k = 0; k < 200; k++) {
+            final int e = r.nextInt(graph.getEdges());
+            if (e == snap.getClosestEdge().getEdge())
+                continue; //split by the snap
+            final EdgeIteratorState s = graph.getEdgeIteratorState(e, Integer.MIN_VALUE);
+            double expected = Double.POSITIVE_INFINITY;
+            for (boolean reverse : new boolean[]{false, true}) {
+                if (!(reverse ? s.getReverse(access) : s.get(access)))
+                    continue;
+                final int from = reverse ? s.getAdjNode() : s.getBaseNode();
+                final Path path = new Dijkstra(qGraph, w, TraversalMode.NODE_BASED).calcPath(snap.getClosestNode(), from);
+                if (path.isFound())
+                    expected = Math.min(expected, path.getTime() / 1000.0);
+            }
+            final float got = res.arrival[e];
+            final double tol = 1 + expected * 0.01;
+            final boolean ok = got == Float.POSITIVE_INFINITY ? expected > limit - tol : Math.abs(got - expected) <= tol;
+            if (!ok && mismatches++ < 5)
+                System.out.printf("edge %d: isochrone %.1fs, dijkstra %.1fs%n", e, got, expected);
+        }
+        return mismatches;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticOsm.delete(osm);
+    }
+
+    @Benchmark
+    public int calc() {
+        return iso.calc(snaps[next++ % POINTS], limit).reached;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IsochroneBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,129 @@
+package netvr;
+
+import com.graphhopper.routing.BidirRoutingAlgorithm;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ch.CHRoutingAlgorithmFactory;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.querygraph.QueryRoutingCHGraph;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.storage.RoutingCHGraph;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.PMap;
+import com.graphhopper.util.shapes.BBox;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DistanceMatrix} for a random size x size matrix inside the graph's bounds, versus one
+ * row of it as one to one CH queries over the same snaps: the matrix pays off once it is
+ * faster than size rows.  The setup checks every cell of a few rows against those queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatrixBenchmark {
+
+    /** see {@link SyntheticOsm#source} */
+    @Param({"town:60", "town:150"})
+    String source;
+
+    @Param({"50", "200"})
+    int size;
+
+    GraphOSM osm;
+    DistanceMatrix matrix;
+    double[] from, to;
+    List<Snap> snaps;
+    CHRoutingAlgorithmFactory factory;
+    int row;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        osm = SyntheticOsm.load(SyntheticOsm.source(source), true);
+        final BBox b = osm.getGraphHopperStorage().getBounds();
+        final Random r = new Random(1);
+        from = new double[size * 2];
+        to = new double[size * 2];
+        for (double[] p : new double[][]{from, to})
+            for (int i = 0; i < size; i++) {
+                p[i * 2] = b.minLat + r.nextDouble() * (b.maxLat - b.minLat);
+                p[i * 2 + 1] = b.minLon + r.nextDouble() * (b.maxLon - b.minLon);
+            }
+        matrix = new DistanceMatrix(osm);
+
+        //one to one CH queries over the same snaps
+        final RoutingCHGraph ch = osm.getGraphHopperStorage().getRoutingCHGraph(
+                osm.getCHPreparationHandler().getNodeBasedCHConfigs().get(0).getName());
+        snaps = new ArrayList<>(size * 2);
+        for (int i = 0; i < size * 2; i++) {
+            final double[] p = i < size ? from : to;
+            final int k = i % size;
+            snaps.add(osm.getLocationIndex().findClosest(p[k * 2], p[k * 2 + 1], EdgeFilter.ALL_EDGES));
+        }
+        final List<Snap> valid = new ArrayList<>();
+        for (Snap s : snaps)
+            if (s.isValid()) valid.add(s);
+        factory = new CHRoutingAlgorithmFactory(new QueryRoutingCHGraph(ch, QueryGraph.create(osm.getGraphHopperStorage(), valid)));
+
+        final DistanceMatrix.Result res = matrix.calc(from, to);
+        int mismatches = 0;
+        for (int i = 0; i < Math.min(size, 5); i++)
+            for (int j = 0; j < size; j++) {
+                final Path path = query(i, j);
+                final double w = path == null || !path.isFound() ? Double.POSITIVE_INFINITY : path.getWeight();
+                final int cell = i * size + j;
+                if (Math.abs(w - res.weight[cell]) > 1e-3 * Math.max(1, w)
+                        || w < Double.POSITIVE_INFINITY && Math.abs(path.getDistance() - res.distance[cell]) > 1) {
+                    if (mismatches++ < 5)
+                        System.out.printf("cell %d,%d: query %.3f, matrix %.3f %.1fm%n", i, j, w, res.weight[cell], res.distance[cell]);
+                }
+            }
+        if (mismatches > 0)
+            throw new AssertionError(mismatches + " cells differ");
+    }
+
+    /** @return null if either point did not snap */
+    Path query(int i, int j) {
+        final Snap s = snaps.get(i), t = snaps.get(size + j);
+        if (!s.isValid() || !t.isValid())
+            return null;
+        final BidirRoutingAlgorithm algo = factory.createAlgo(new PMap());
+        return algo.calcPath(s.getClosestNode(), t.getClosestNode());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticOsm.delete(osm);
+    }
+
+    @Benchmark
+    public DistanceMatrix.Result matrix() {
+        return matrix.calc(from, to);
+    }
+
+    @Benchmark
+    public double oneToOneRow() {
+        final int i = row++ % size;
+        double sum = 0;
+        for (int j = 0; j < size; j++) {
+            final Path p = query(i, j);
+            if (p != null && p.isFound())
+                sum += p.getWeight();
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MatrixBenchmark.class.getSimpleName()).build()).run();
+    }
+}
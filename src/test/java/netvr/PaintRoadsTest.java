@@ -0,0 +1,72 @@
+package netvr;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.util.shapes.BBox;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * {@link GraphHopperGL#paintRoads} through the location index paints the same edges as a scan
+ * of all edges for endpoints in the view, zooming into the center of the bundled synthetic
+ * town (or the extract given in {@link GraphHopperGL} arguments), and how long each takes.
+ */
+public class PaintRoadsTest {
+    public static void main(String[] args) {
+        GraphOSM osm = Arrays.stream(args).anyMatch(a -> a.startsWith("datareader.file=")) ?
+                (GraphOSM) new GraphOSM().init(GraphHopperGL.config(args)).importOrLoad() :
+                SyntheticOsm.load(SyntheticOsm.bundled(), false);
+        Graph graph = osm.getGraphHopperStorage();
+        GraphHopperGL gl = new GraphHopperGL(osm);
+        GraphHopperGL.GraphicsWrapper mg = new GraphHopperGL.GraphicsWrapper(graph);
+        final int size = 800, rounds = 20;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        //an image's device is unbounded; Swing sets the clip to the component
+        g2.setClip(0, 0, size, size);
+
+        BBox all = graph.getBounds();
+        for (int step = 0; step < 8; step++) {
+            final int painted = gl.paintRoads(g2, mg);
+            final BBox b = mg.setBounds(0, size, 0, size);
+            final int scanned = scan(graph, b);
+            if (painted != scanned)
+                throw new AssertionError("zoom " + mg.zoom() + ": painted " + painted + " edges, " + scanned + " in view");
+            if (step == 0 && painted == 0)
+                throw new AssertionError("nothing painted");
+
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                gl.paintRoads(g2, mg);
+            final double index = (System.nanoTime() - start) / 1e6 / rounds;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++)
+                scan(graph, b);
+            final double scan = (System.nanoTime() - start) / 1e6 / rounds;
+            System.out.printf("zoom %d: %d edges painted in %.2fms, scanning all edges alone %.2fms%n",
+                    mg.zoom(), painted, index, scan);
+
+            //zoom in on the middle of the graph
+            mg.scale((int) Math.round(mg.getX((all.minLon + all.maxLon) / 2)),
+                    (int) Math.round(mg.getY((all.minLat + all.maxLat) / 2)), true);
+        }
+        osm.close();
+        System.out.println("ok");
+    }
+
+    /** edges with an endpoint in the box */
+    static int scan(Graph graph, BBox b) {
+        final NodeAccess n = graph.getNodeAccess();
+        int count = 0;
+        AllEdgesIterator edge = graph.getAllEdges();
+        while (edge.next()) {
+            final int i = edge.getBaseNode(), j = edge.getAdjNode();
+            if (b.contains(n.getLatitude(i), n.getLongitude(i)) || b.contains(n.getLatitude(j), n.getLongitude(j)))
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,139 @@
+package netvr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Round trip accuracy of {@link Quantized} coordinates: fixed point conversion, delta + varint
+ * coding of street-like vertex runs, camera-relative decoding far from 0,0, and a whole
+ * {@link VisCache} written and read back through {@link MappedGeometry}.
+ */
+public class QuantizedTest {
+
+    public static void main(String[] args) throws Exception {
+        Random r = new Random(1);
+        fixedPoint(r);
+        runs(r);
+        relative();
+        cache(r);
+        System.out.println("ok");
+    }
+
+    /** half a unit of the last place, about 5mm */
+    static void fixedPoint(Random r) {
+        double worst = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            double d = r.nextDouble() * 360 - 180;
+            worst = Math.max(worst, Math.abs(Quantized.deg(Quantized.fix(d)) - d));
+        }
+        System.out.printf("fixed point: max error %.2e deg%n", worst);
+        check(worst <= 0.5 / Quantized.SCALE + 1e-15, "fixed point error " + worst);
+    }
+
+    /** lossless, and a few bytes per vertex for steps of a few meters */
+    static void runs(Random r) throws IOException {
+        final int n = 100_000;
+        final int[] xy = new int[n * 2], back = new int[n * 2];
+        int x = Quantized.fix(-74.0), y = Quantized.fix(40.7);
+        for (int i = 0; i < n; i++) {
+            //mostly steps of up to 15m, sometimes a jump across the tile
+            final int step = r.nextInt(100) == 0 ? 2_000_000 : 1_500;
+            xy[i * 2] = x += r.nextInt(step * 2 + 1) - step;
+            xy[i * 2 + 1] = y += r.nextInt(step * 2 + 1) - step;
+        }
+        final int x0 = VisCache.origin(-296), y0 = VisCache.origin(162);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        final int written = Quantized.write(out, xy, n, x0, y0);
+        out.flush();
+        check(written == bytes.size() && written == Quantized.size(xy, n, x0, y0), "size mismatch");
+
+        final int end = Quantized.read(ByteBuffer.wrap(bytes.toByteArray()), 0, n, x0, y0, back);
+        check(end == written, "read " + end + " of " + written + " bytes");
+        for (int i = 0; i < n * 2; i++)
+            check(back[i] == xy[i], "vertex " + i / 2 + " differs");
+        System.out.printf("runs: %.2f bytes/vertex (8 as floats)%n", written / (double) n);
+        check(written <= n * 8 / 2, "expected at most half the size of floats");
+    }
+
+    /** near the antimeridian, relative decoding keeps what absolute floats lose */
+    static void relative() {
+        final double lon = 179.9876543, lat = -16.1234567, camX = 179.98, camY = -16.12;
+        final int[] fixed = {Quantized.fix(lon), Quantized.fix(lat)};
+        final FloatBuffer xy = FloatBuffer.allocate(5);
+        Quantized.put(fixed, 0, 1, camX, camY, 1, 1, 1, xy);
+        final double rel = Math.abs(xy.get(0) + camX - lon) + Math.abs(xy.get(1) + camY - lat);
+        final double abs = Math.abs((float) lon - lon) + Math.abs((float) lat - lat);
+        System.out.printf("relative: error %.2e deg, absolute floats %.2e deg%n", rel, abs);
+        check(rel < 1e-7, "relative error " + rel);
+        check(rel < abs / 10, "relative decoding not more precise than floats");
+    }
+
+    static void cache(Random r) throws IOException {
+        WayGeometry g = new WayGeometry();
+        Lod.Pyramid p = new Lod.Pyramid();
+        int[] xy = new int[40];
+        for (int w = 0; w < 2000; w++) {
+            //far from 0,0, where floats would only keep about a meter
+            double x = 120 + r.nextDouble() * 2, y = -40 + r.nextDouble();
+            for (int i = 0; i < 20; i++) {
+                xy[i * 2] = Quantized.fix(x + i * 1e-4);
+                xy[i * 2 + 1] = Quantized.fix(y + r.nextDouble() * 1e-4);
+            }
+            p.build(xy, 20, null, 0, false);
+            g.add(p, w % WayStyle.defaults().size());
+        }
+
+        File dir = Files.createTempDirectory("quantized").toFile();
+        File source = new File(dir, "source.osm");
+        Files.createFile(source.toPath());
+        VisCache c = new VisCache(dir, source, g.styles);
+        c.write(g);
+        check(c.valid(), "cache not valid");
+        GraphOSM target = new GraphOSM();
+        for (VisCache.Tile t : c.open())
+            c.read(t, target);
+        c.close();
+
+        //source ways by their quantized first vertex
+        final Map<Long, Integer> byStart = new HashMap<>();
+        for (int e = 0; e < g.size(); e += Lod.LEVELS)
+            byStart.put(key(g, e), e);
+        final long[] worst = {0};
+        final int[] seen = {0};
+        target.ways.query(-180, -90, 180, 90, null, v -> {
+            final WayVis m = (WayVis) v;
+            final Integer e = byStart.get(key(m.g, m.id));
+            check(e != null && g.count(e) == m.g.count(m.id), "way not found");
+            check(g.style(e) == m.g.style(m.id), "style differs");
+            for (int i = 0; i < g.count(e); i++)
+                worst[0] = Math.max(worst[0], Math.max(Math.abs((long) g.fixedX(e, i) - m.g.fixedX(m.id, i)),
+                        Math.abs((long) g.fixedY(e, i) - m.g.fixedY(m.id, i))));
+            seen[0]++;
+        });
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+        System.out.printf("cache: %d of %d ways matched, max error %d fixed point units%n", seen[0], g.size() / Lod.LEVELS, worst[0]);
+        check(seen[0] == g.size() / Lod.LEVELS, "ways missing");
+        //both sides hold the same fixed point
+        check(worst[0] == 0, "cache error " + worst[0]);
+    }
+
+    static long key(Geometry g, int e) {
+        return ((long) g.fixedX(e, 0) << 32) | (g.fixedY(e, 0) & 0xffffffffL);
+    }
+
+    static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
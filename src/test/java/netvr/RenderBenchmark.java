@@ -0,0 +1,145 @@
+package netvr;
+
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.shapes.BBox;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per frame and per upload work of the renderer, without GL: viewport queries as in
+ * {@code drawWays}, against the packed index and against the same items as not yet packed
+ * batches of {@link GraphOSM#BATCH}; building the road {@link EdgeVis} ({@code buildRoads}); and
+ * writing vertices as {@link BatchRenderer} uploads them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    /** see {@link SyntheticOsm#source} */
+    @Param({"bundled", "town:60"})
+    String source;
+
+    /** viewport width, as a fraction of the graph's width */
+    @Param({"0.1", "0.5"})
+    float view;
+
+    static final int QUERIES = 64;
+
+    GraphOSM osm;
+    VisIndex pending;
+    float[] queries;
+    int level;
+    List<Vis> visible;
+    FloatBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        osm = SyntheticOsm.load(SyntheticOsm.source(source), false);
+        final Graph g = osm.getGraphHopperStorage();
+        GraphHopperGL.buildRoads(g, speed(), new EdgeStore(g.getEdges()), osm);
+
+        final List<Vis> all = new ArrayList<>();
+        osm.ways.query(-180, -90, 180, 90, null, all::add);
+        pending = new VisIndex();
+        final float[] b = new float[all.size() * 4], tmp = new float[4];
+        for (int i = 0; i < all.size(); i++) {
+            all.get(i).bounds(tmp);
+            System.arraycopy(tmp, 0, b, i * 4, 4);
+        }
+        for (int i = 0; i < all.size(); i += GraphOSM.BATCH) {
+            final int e = Math.min(all.size(), i + GraphOSM.BATCH);
+            pending.add(all.subList(i, e), Arrays.copyOfRange(b, i * 4, e * 4));
+        }
+
+        final BBox bb = g.getBounds();
+        final float w = (float) (bb.maxLon - bb.minLon) * view, h = (float) (bb.maxLat - bb.minLat) * view;
+        final Random r = new Random(1);
+        queries = new float[QUERIES * 4];
+        for (int q = 0; q < QUERIES; q++) {
+            final float x = (float) (bb.minLon + r.nextDouble() * (bb.maxLon - bb.minLon - w));
+            final float y = (float) (bb.minLat + r.nextDouble() * (bb.maxLat - bb.minLat - h));
+            queries[q * 4] = x;
+            queries[q * 4 + 1] = y;
+            queries[q * 4 + 2] = x + w;
+            queries[q * 4 + 3] = y + h;
+        }
+        //about one pixel per 1000th of the view, as in drawWays
+        level = Lod.level(w / 1000);
+
+        visible = new ArrayList<>();
+        osm.ways.query(queries[0], queries[1], queries[2], queries[3], null, visible::add);
+        int n = 0;
+        for (Vis v : visible)
+            n += v.vertices(level);
+        buffer = FloatBuffer.allocate(n * BatchRenderer.STRIDE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticOsm.delete(osm);
+    }
+
+    DecimalEncodedValue speed() {
+        return osm.getEncodingManager().fetchEdgeEncoders().get(0).getAverageSpeedEnc();
+    }
+
+    /** one pass over all viewports, counting the vertices to draw */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int queryPacked() {
+        return query(osm.ways);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int queryPending() {
+        return query(pending);
+    }
+
+    private int query(VisIndex index) {
+        final int[] n = {0};
+        for (int q = 0; q < QUERIES; q++)
+            index.query(queries[q * 4], queries[q * 4 + 1], queries[q * 4 + 2], queries[q * 4 + 3], null,
+                    v -> n[0] += v.vertices(level));
+        return n[0];
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public Object buildRoads(IngestBenchmark.Sink sink) {
+        final Graph g = osm.getGraphHopperStorage();
+        GraphHopperGL.buildRoads(g, speed(), new EdgeStore(g.getEdges()), sink.osm);
+        return sink.osm.ways;
+    }
+
+    /** vertices of one viewport, relative to its corner */
+    @Benchmark
+    public FloatBuffer write() {
+        buffer.clear();
+        for (Vis v : visible)
+            if (v.vertices(level) > 0)
+                v.write(buffer, level, queries[0], queries[1]);
+        return buffer;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RenderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,108 @@
+package netvr;
+
+import com.graphhopper.config.Profile;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.querygraph.QueryGraph;
+import com.graphhopper.routing.querygraph.QueryRoutingCHGraph;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.RoutingCHGraph;
+import com.graphhopper.storage.index.Snap;
+import com.graphhopper.util.PMap;
+import com.graphhopper.util.shapes.BBox;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point to point queries with the {@link RoutingRenderer} algorithms the GL window routes
+ * with, between random snapped points of a synthetic town, with and without a
+ * {@link SearchTrace}.  Each query graph is built once in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+
+    @Param({"town:60", "town:150"})
+    String source;
+
+    @Param({"dijkstrabi", "astarbi", "ch"})
+    String algo;
+
+    @Param({"false", "true"})
+    boolean traced;
+
+    static final int QUERIES = 64;
+
+    GraphOSM osm;
+    Weighting weighting;
+    RoutingCHGraph ch;
+    QueryGraph[] graphs = new QueryGraph[QUERIES];
+    int[] from = new int[QUERIES], to = new int[QUERIES];
+    SearchTrace trace;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        osm = SyntheticOsm.load(SyntheticOsm.source(source), true);
+        final Graph g = osm.getGraphHopperStorage();
+        final Profile profile = osm.getProfiles().iterator().next();
+        weighting = osm.createWeighting(profile, new PMap());
+        ch = osm.getGraphHopperStorage().getRoutingCHGraph(
+                osm.getCHPreparationHandler().getNodeBasedCHConfigs().get(0).getName());
+        trace = traced ? new SearchTrace(1 << 16) : null;
+
+        final BBox b = g.getBounds();
+        final Random r = new Random(1);
+        for (int q = 0; q < QUERIES; q++) {
+            Snap s, t;
+            do {
+                s = snap(b, r);
+                t = snap(b, r);
+            } while (!s.isValid() || !t.isValid());
+            graphs[q] = QueryGraph.create(g, s, t);
+            from[q] = s.getClosestNode();
+            to[q] = t.getClosestNode();
+        }
+    }
+
+    Snap snap(BBox b, Random r) {
+        return osm.getLocationIndex().findClosest(b.minLat + r.nextDouble() * (b.maxLat - b.minLat),
+                b.minLon + r.nextDouble() * (b.maxLon - b.minLon), EdgeFilter.ALL_EDGES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticOsm.delete(osm);
+    }
+
+    @Benchmark
+    public double calcPath() {
+        final int q = next++ & (QUERIES - 1);
+        final QueryGraph g = graphs[q];
+        final TraversalMode t = TraversalMode.NODE_BASED;
+        final RoutingAlgorithm a;
+        switch (algo) {
+            case "dijkstrabi": a = new RoutingRenderer.DijkstraBidirectionRoutingRenderer(g, weighting, t, trace); break;
+            case "astarbi": a = new RoutingRenderer.AStarBiRoutingRenderer(g, weighting, t, trace); break;
+            default: a = new RoutingRenderer.CHRoutingRenderer(new QueryRoutingCHGraph(ch, g), trace);
+        }
+        final Path p = a.calcPath(from[q], to[q]);
+        return p.getWeight();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RoutingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,139 @@
+package netvr;
+
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHConfig;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.RoutingCHGraph;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link SearchTrace} events from a writer thread arrive in order and complete at a reader
+ * that polls concurrently, and traced {@link RoutingRenderer} algorithms find the same paths
+ * as untraced ones, settling as many nodes as they report visiting.  Traced CH searches find
+ * the same paths and count stalled entries as polled but not settled.
+ */
+public class SearchTraceTest {
+
+    public static void main(String[] args) throws Exception {
+        ring();
+        algorithms();
+        System.out.println("ok");
+    }
+
+    /** the reader sees increasing node ids, and only misses events when it falls a capacity behind */
+    static void ring() throws InterruptedException {
+        final SearchTrace t = new SearchTrace(1024);
+        final int n = 2_000_000;
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            t.begin();
+            for (int i = 0; i < n; i++) {
+                t.settled(i, i - 1, (i & 1) != 0);
+                //give a reader on the same core a chance
+                if (i % 512 == 0)
+                    Thread.yield();
+            }
+            done.set(true);
+        });
+        writer.start();
+        final long[] out = new long[4096];
+        long seen = 0;
+        int last = -1;
+        boolean finished;
+        do {
+            finished = done.get();
+            final int k = t.poll(out);
+            for (int i = 0; i < k; i++) {
+                final int node = SearchTrace.node(out[i]);
+                check(node > last, "event " + node + " after " + last);
+                check(SearchTrace.edge(out[i]) == node - 1, "edge of " + node);
+                check((SearchTrace.kind(out[i]) & SearchTrace.BACKWARD) != 0 == ((node & 1) != 0), "direction of " + node);
+                last = node;
+            }
+            seen += k;
+        } while (!finished);
+        writer.join();
+        System.out.printf("ring: %d of %d events read concurrently%n", seen, n);
+        check(last == n - 1, "last event " + last);
+        check(t.settled == n, "settled " + t.settled);
+    }
+
+    static void algorithms() {
+        CarFlagEncoder car = new CarFlagEncoder();
+        EncodingManager em = EncodingManager.create(car);
+        CHConfig chConfig = CHConfig.nodeBased("car", new FastestWeighting(car));
+        GraphHopperStorage g = new GraphBuilder(em).setCHConfigs(chConfig).create();
+        Random r = new Random(1);
+        final int side = 40;
+        for (int y = 0; y < side; y++)
+            for (int x = 0; x < side; x++) {
+                final int v = y * side + x;
+                g.getNodeAccess().setNode(v, 40 + y * 0.001, -75 + x * 0.001);
+                //some one way streets
+                if (x > 0)
+                    g.edge(v - 1, v).setDistance(85).set(car.getAverageSpeedEnc(), 20 + r.nextInt(80))
+                            .set(car.getAccessEnc(), true).setReverse(car.getAccessEnc(), r.nextInt(10) > 0);
+                if (y > 0)
+                    g.edge(v - side, v).setDistance(111).set(car.getAverageSpeedEnc(), 20 + r.nextInt(80))
+                            .set(car.getAccessEnc(), true).setReverse(car.getAccessEnc(), true);
+            }
+        g.freeze();
+        PrepareContractionHierarchies.fromGraphHopperStorage(g, chConfig).doWork();
+        RoutingCHGraph ch = g.getRoutingCHGraph(chConfig.getName());
+        Weighting w = new FastestWeighting(car);
+        TraversalMode t = TraversalMode.NODE_BASED;
+        long stalled = 0;
+
+        for (int q = 0; q < 50; q++) {
+            final int from = r.nextInt(side * side), to = r.nextInt(side * side);
+            RoutingAlgorithm[] plain = {
+                    new RoutingRenderer.AStarRoutingRenderer(g, w, t),
+                    new RoutingRenderer.AStarBiRoutingRenderer(g, w, t),
+                    new RoutingRenderer.DijkstraBidirectionRoutingRenderer(g, w, t),
+                    new RoutingRenderer.DijkstraSimpleRoutingRenderer(g, w, t)};
+            for (RoutingAlgorithm a : plain) {
+                final SearchTrace trace = new SearchTrace(1 << 16);
+                final RoutingAlgorithm traced = a instanceof RoutingRenderer.AStarRoutingRenderer ? new RoutingRenderer.AStarRoutingRenderer(g, w, t, trace)
+                        : a instanceof RoutingRenderer.AStarBiRoutingRenderer ? new RoutingRenderer.AStarBiRoutingRenderer(g, w, t, trace)
+                        : a instanceof RoutingRenderer.DijkstraBidirectionRoutingRenderer ? new RoutingRenderer.DijkstraBidirectionRoutingRenderer(g, w, t, trace)
+                        : new RoutingRenderer.DijkstraSimpleRoutingRenderer(g, w, t, trace);
+                final Path p = a.calcPath(from, to), tp = traced.calcPath(from, to);
+                final String name = a.getClass().getSimpleName();
+                check(p.isFound() == tp.isFound() && Math.abs(p.getWeight() - tp.getWeight()) < 1e-9, name + " path differs");
+                //the unidirectional algorithms count the target, which is never expanded
+                check(Math.abs(trace.settled - traced.getVisitedNodes()) <= 1,
+                        name + " settled " + trace.settled + ", visited " + traced.getVisitedNodes());
+                check(trace.pushed > 0 && trace.relaxed >= trace.pushed && trace.polled >= trace.settled, name + " counters");
+                check(trace.searchNanos > 0 && trace.extractNanos > 0, name + " phases");
+            }
+
+            final Path expected = new RoutingRenderer.DijkstraBidirectionRoutingRenderer(g, w, t).calcPath(from, to);
+            final SearchTrace trace = new SearchTrace(1 << 16);
+            final Path p = new RoutingRenderer.CHRoutingRenderer(ch).calcPath(from, to);
+            final Path tp = new RoutingRenderer.CHRoutingRenderer(ch, trace).calcPath(from, to);
+            check(p.isFound() == tp.isFound() && Math.abs(p.getWeight() - tp.getWeight()) < 1e-9, "CH path differs");
+            //shortcut weights are stored rounded
+            check(p.isFound() == expected.isFound() && Math.abs(p.getWeight() - expected.getWeight()) < 1e-2,
+                    "CH weight " + p.getWeight() + ", expected " + expected.getWeight());
+            check(trace.polled >= trace.settled && (trace.settled > 0 || from == to), "CH polled " + trace.polled + ", settled " + trace.settled);
+            stalled += trace.polled - trace.settled;
+        }
+        check(stalled > 0, "CH never stalled");
+        System.out.printf("algorithms: traced paths and counts match, %d CH entries stalled%n", stalled);
+    }
+
+    static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,192 @@
+package netvr;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.graphhopper.routing.ev.DecimalEncodedValue;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.shapes.BBox;
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.*;
+import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * {@link SpeedFeed} updates reach the graph and the road colors, and {@link BatchRenderer}
+ * rewrites only the changed vertices of a synthetic town, drawing the same pixels as a full
+ * re-upload.  Then replays a feed file on another thread while frames are drawn, reporting
+ * updates per second and the longest frame.  First checks that without frames, the reported
+ * rows stay bounded.  Takes the number of updates (default 1M).
+ * Renders into an offscreen drawable, so it runs without a window (e.g.
+ * LIBGL_ALWAYS_SOFTWARE=1 with Mesa).
+ */
+public class SpeedFeedTest {
+    static final int W = 512, H = 512;
+
+    public static void main(String[] args) throws Exception {
+        final int updates = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        GraphOSM osm = SyntheticOsm.load(SyntheticOsm.town(60, 1), false);
+        osm.waysLoaded().join();
+        Graph g = osm.getGraphHopperStorage();
+        DecimalEncodedValue enc = osm.getEncodingManager().fetchEdgeEncoders().get(0).getAverageSpeedEnc();
+        EdgeStore roads = new EdgeStore(g.getEdges());
+        GraphHopperGL.buildRoads(g, enc, roads, osm);
+        SpeedFeed feed = new SpeedFeed(g, enc, roads);
+        Random r = new Random(1);
+        headless(g, feed, roads);
+
+        GLProfile p = GLProfile.get(GLProfile.GL2);
+        GLCapabilities c = new GLCapabilities(p);
+        c.setOnscreen(false);
+        GLOffscreenAutoDrawable d = GLDrawableFactory.getFactory(p).createOffscreenAutoDrawable(null, c, null, W, H);
+        d.display();
+        d.getContext().makeCurrent();
+        GL2 gl = d.getGL().getGL2();
+        BatchRenderer b = new BatchRenderer(0.02f);
+        final IntArrayList recolored = new IntArrayList();
+
+        frame(gl, osm, b, roads, recolored);
+        final long full = b.uploadedBytes;
+        check(b.uploads > 0 && full > 0, "first frame uploaded nothing");
+        frame(gl, osm, b, roads, recolored);
+        check(b.uploads == 0 && b.updates == 0 && b.uploadedBytes == 0, "unchanged frame uploaded");
+
+        final int[] edges = new int[10];
+        final double[] speeds = new double[10];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = i * (g.getEdges() / edges.length);
+            speeds[i] = 5 + r.nextInt(120);
+        }
+        feed.update(edges, speeds, edges.length);
+        for (int i = 0; i < edges.length; i++) {
+            final double stored = g.getEdgeIteratorState(edges[i], Integer.MIN_VALUE).get(enc);
+            //rounded to the encoder's steps
+            check(Math.abs(stored - Math.min(speeds[i], enc.getMaxDecimal())) <= 2.5, "edge " + edges[i] + " speed " + stored);
+            check(roads.rgb(edges[i]) == (EdgeStore.speedRgb(stored) & 0xffffff), "edge " + edges[i] + " color");
+        }
+        int[] updated = frame(gl, osm, b, roads, recolored);
+        System.out.printf("10 recolored edges: %d uploads, %d updates, %d of %d bytes%n", b.uploads, b.updates, b.uploadedBytes, full);
+        check(b.uploads == 0 && b.updates > 0 && b.updates <= edges.length, "recolored frame re-uploaded batches");
+        //whole groups are rewritten
+        final List<EdgeVis> groups = new ArrayList<>();
+        roads.groups(IntArrayList.from(edges), groups);
+        long rewritten = 0;
+        for (EdgeVis v : groups)
+            rewritten += v.vertices(0);
+        check(b.uploadedBytes == rewritten * BatchRenderer.STRIDE * Buffers.SIZEOF_FLOAT, "recolored frame sent " + b.uploadedBytes + " bytes");
+        b.invalidate();
+        check(Arrays.equals(updated, frame(gl, osm, b, roads, recolored)), "partial update differs from a full upload");
+
+        //a feed file, applied while frames are drawn
+        File file = File.createTempFile("speeds", ".txt");
+        file.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(file, "US-ASCII")) {
+            w.println("# edge speed");
+            for (int i = 0; i < updates; i++)
+                w.println(r.nextInt(g.getEdges()) + " " + (5 + r.nextInt(120)));
+        }
+        final long[] applied = {0};
+        Thread t = new Thread(() -> {
+            try {
+                applied[0] = feed.replay(file.toPath(), 0);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, "speed-feed");
+        final long start = System.nanoTime();
+        t.start();
+        long worst = 0, bytes = 0;
+        int frames = 0;
+        while (t.isAlive()) {
+            final long f = System.nanoTime();
+            frame(gl, osm, b, roads, recolored);
+            worst = Math.max(worst, System.nanoTime() - f);
+            bytes += b.uploadedBytes;
+            frames++;
+            Thread.sleep(16);
+        }
+        t.join();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d updates in %.2fs (%.0f/s) during %d frames: longest frame %.1fms, %d bytes per frame%n",
+                applied[0], seconds, applied[0] / seconds, frames, worst / 1e6, bytes / Math.max(1, frames));
+        check(applied[0] == updates, applied[0] + " updates applied");
+
+        updated = frame(gl, osm, b, roads, recolored);
+        b.invalidate();
+        check(Arrays.equals(updated, frame(gl, osm, b, roads, recolored)), "partial updates differ from a full upload after the feed");
+
+        b.dispose(gl);
+        d.getContext().release();
+        d.destroy();
+        osm.close();
+        System.out.println("ok");
+    }
+
+    /** with nothing draining them, reported rows stop at maxChanged and ask for a full redraw */
+    static void headless(Graph g, SpeedFeed feed, EdgeStore roads) {
+        for (int e = 0; e < g.getEdges(); e++) {
+            final EdgeVis v = roads.vis(e);
+            final int id = e;
+            check(v != null && v.ids.length <= EdgeStore.GROUP && Arrays.stream(v.ids).filter(i -> i == id).count() == 1,
+                    "edge " + e + " not grouped once");
+        }
+        final int[] edges = new int[SpeedFeed.BATCH];
+        final double[] speeds = new double[SpeedFeed.BATCH];
+        Arrays.fill(speeds, 50);
+        for (int k = 0; k <= roads.maxChanged / edges.length; k++) {
+            for (int i = 0; i < edges.length; i++)
+                edges[i] = (k * edges.length + i) % g.getEdges();
+            feed.update(edges, speeds, edges.length);
+        }
+        final IntArrayList drained = new IntArrayList();
+        check(roads.drainChanged(drained) && drained.isEmpty(), "an undrained store kept " + drained.size() + " rows");
+        feed.update(edges, speeds, 10);
+        check(!roads.drainChanged(drained) && drained.size() == 10, "rows after a full redraw");
+        System.out.printf("headless: changes stop at %d rows%n", roads.maxChanged);
+    }
+
+    /** draws the town at level 0, as drawWays does after draining the recolored edges, and reads the pixels */
+    static int[] frame(GL2 gl, GraphOSM osm, BatchRenderer b, EdgeStore roads, IntArrayList recolored) {
+        if (roads.drainChanged(recolored))
+            b.invalidate();
+        else {
+            final List<EdgeVis> vv = new ArrayList<>();
+            roads.groups(recolored, vv);
+            for (EdgeVis v : vv)
+                b.changed(v);
+        }
+        recolored.clear();
+
+        final BBox bb = osm.getGraphHopperStorage().getBounds();
+        gl.glViewport(0, 0, W, H);
+        gl.glClearColor(0, 0, 0, 1);
+        gl.glClear(GL.GL_COLOR_BUFFER_BIT);
+        gl.glMatrixMode(GLMatrixFunc.GL_PROJECTION);
+        gl.glLoadIdentity();
+        gl.glOrtho(bb.minLon, bb.maxLon, bb.minLat, bb.maxLat, -1, 1);
+        gl.glMatrixMode(GLMatrixFunc.GL_MODELVIEW);
+        gl.glLoadIdentity();
+        b.begin(0);
+        osm.ways.query((float) bb.minLon, (float) bb.minLat, (float) bb.maxLon, (float) bb.maxLat, null, v -> {
+            if (v.vertices(0) > 0)
+                b.accept(v);
+        });
+        b.end(gl);
+
+        final IntBuffer pixels = Buffers.newDirectIntBuffer(W * H);
+        gl.glReadPixels(0, 0, W, H, GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, pixels);
+        final int[] a = new int[W * H];
+        pixels.get(a);
+        return a;
+    }
+
+    static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,215 @@
+package netvr;
+
+import com.graphhopper.GraphHopperConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates OSM XML towns for the benchmarks: a jittered street grid (every fifth street
+ * primary, some residential streets one way), a building in each block, a river, a park and a
+ * landuse multipolygon with a hole.  The bundled bench.osm resource is {@code town(20, 1)};
+ * run main with a path to regenerate it.  Also imports such files for the benchmarks.
+ */
+public class SyntheticOsm {
+
+    static final double LAT = 40.7, LON = -74.0, STEP = 0.001;
+
+    private final Random r;
+    /** nodes must precede ways, which precede relations */
+    private final StringBuilder nodes = new StringBuilder(), ways = new StringBuilder(), relations = new StringBuilder();
+    private long nodeId = 1, wayId = 1;
+
+    private SyntheticOsm(long seed) {
+        r = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        write(new File(args.length > 0 ? args[0] : "src/test/resources/bench.osm"), 20, 1);
+    }
+
+    /** the bundled extract, copied to a temporary file for the OSM reader */
+    static File bundled() {
+        try (InputStream in = SyntheticOsm.class.getResourceAsStream("/bench.osm")) {
+            if (in == null)
+                throw new IllegalStateException("bench.osm not on the class path");
+            final File f = File.createTempFile("bench", ".osm");
+            f.deleteOnExit();
+            Files.copy(in, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return f;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** a town of side x side intersections in a temporary file */
+    static File town(int side, long seed) {
+        try {
+            final File f = File.createTempFile("town" + side, ".osm");
+            f.deleteOnExit();
+            write(f, side, seed);
+            return f;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** "bundled", "town:side" or the path of an OSM file, e.g. a real extract */
+    static File source(String name) {
+        if (name.equals("bundled"))
+            return bundled();
+        if (name.startsWith("town:"))
+            return town(Integer.parseInt(name.substring(5)), 1);
+        final File f = new File(name);
+        if (!f.isFile())
+            throw new IllegalArgumentException("no OSM file " + name);
+        return f;
+    }
+
+    /**
+     * imports the file into a temporary in-memory graph and waits for all its ways
+     *
+     * @param prepare also run the CH and LM preparations
+     */
+    static GraphOSM load(File osm, boolean prepare) {
+        try {
+            final File dir = Files.createTempDirectory("netvr-bench").toFile();
+            final GraphHopperConfig c = GraphHopperGL.config(new String[]{
+                    "datareader.file=" + osm, "graph.location=" + dir, "graph.dataaccess=RAM_STORE"});
+            if (!prepare) {
+                c.setCHProfiles(List.of());
+                c.setLMProfiles(List.of());
+            }
+            final GraphOSM g = (GraphOSM) new GraphOSM().init(c).importOrLoad();
+            g.waysLoaded().join();
+            return g;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** closes the graph and deletes its directory */
+    static void delete(GraphOSM g) {
+        g.close();
+        final File[] files = new File(g.getGraphHopperLocation()).listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        new File(g.getGraphHopperLocation()).delete();
+    }
+
+    static void write(File f, int side, long seed) throws IOException {
+        final SyntheticOsm t = new SyntheticOsm(seed);
+        t.town(side);
+        try (Writer w = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8)) {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm version=\"0.6\" generator=\"netvr\">\n");
+            w.append(t.nodes).append(t.ways).append(t.relations);
+            w.write("</osm>\n");
+        }
+    }
+
+    private void town(int side) {
+        //intersections
+        final long[] grid = new long[side * side];
+        for (int y = 0; y < side; y++)
+            for (int x = 0; x < side; x++)
+                grid[y * side + x] = node(y + jitter(), x + jitter());
+
+        //streets, one way per grid line
+        for (int dir = 0; dir < 2; dir++)
+            for (int i = 0; i < side; i++) {
+                final boolean primary = i % 5 == 0;
+                final long[] refs = new long[side];
+                for (int j = 0; j < side; j++)
+                    refs[j] = grid[dir == 0 ? i * side + j : j * side + i];
+                final StringBuilder w = way(refs);
+                tag(w, "highway", primary ? "primary" : "residential");
+                tag(w, "name", (dir == 0 ? "Street " : "Avenue ") + i);
+                if (primary)
+                    tag(w, "maxspeed", "60");
+                else if (r.nextInt(4) == 0)
+                    tag(w, "oneway", "yes");
+                end(w);
+            }
+
+        //a building in each block
+        for (int y = 0; y + 1 < side; y++)
+            for (int x = 0; x + 1 < side; x++) {
+                final double h = 0.2 + r.nextDouble() * 0.2, wd = 0.2 + r.nextDouble() * 0.2;
+                final StringBuilder w = way(rectangle(y + 0.3, x + 0.3, y + 0.3 + h, x + 0.3 + wd));
+                tag(w, "building", "yes");
+                end(w);
+            }
+
+        //a river across the town, between the streets
+        final long[] river = new long[side * 2 + 1];
+        for (int i = 0; i < river.length; i++)
+            river[i] = node(i * 0.5 - 0.25, side * 0.5 + 0.5 + Math.sin(i * 0.4) * 2);
+        final StringBuilder rw = way(river);
+        tag(rw, "waterway", "river");
+        end(rw);
+
+        //a round park over a few blocks
+        final double pc = Math.max(2, side / 5), pr = pc * 0.4;
+        final long[] park = new long[25];
+        for (int i = 0; i < 24; i++)
+            park[i] = node(pc + Math.sin(i * Math.PI / 12) * pr, pc + Math.cos(i * Math.PI / 12) * pr);
+        park[24] = park[0];
+        final StringBuilder pw = way(park);
+        tag(pw, "leisure", "park");
+        end(pw);
+
+        //landuse around the town with a hole in the middle
+        final long outer = wayId;
+        end(way(rectangle(-1, -1, side, side)));
+        final long inner = wayId;
+        end(way(rectangle(side * 0.4, side * 0.4, side * 0.6, side * 0.6)));
+        relations.append("<relation id=\"1\">\n")
+                .append("<member type=\"way\" ref=\"").append(outer).append("\" role=\"outer\"/>\n")
+                .append("<member type=\"way\" ref=\"").append(inner).append("\" role=\"inner\"/>\n");
+        tag(relations, "type", "multipolygon");
+        tag(relations, "landuse", "residential");
+        relations.append("</relation>\n");
+    }
+
+    private double jitter() {
+        return (r.nextDouble() - 0.5) * 0.3;
+    }
+
+    /** @param y, x in grid steps */
+    private long node(double y, double x) {
+        nodes.append(String.format(Locale.ROOT, "<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>\n",
+                nodeId, LAT + y * STEP, LON + x * STEP));
+        return nodeId++;
+    }
+
+    /** a closed ring of four new nodes */
+    private long[] rectangle(double y0, double x0, double y1, double x1) {
+        final long a = node(y0, x0);
+        return new long[]{a, node(y0, x1), node(y1, x1), node(y1, x0), a};
+    }
+
+    private StringBuilder way(long[] refs) {
+        ways.append("<way id=\"").append(wayId++).append("\">\n");
+        for (long ref : refs)
+            ways.append("<nd ref=\"").append(ref).append("\"/>\n");
+        return ways;
+    }
+
+    private static void end(StringBuilder w) {
+        w.append("</way>\n");
+    }
+
+    private static void tag(StringBuilder w, String k, String v) {
+        w.append("<tag k=\"").append(k).append("\" v=\"").append(v).append("\"/>\n");
+    }
+}
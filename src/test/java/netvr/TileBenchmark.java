@@ -0,0 +1,65 @@
+package netvr;
+
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.shapes.BBox;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TileRenderer#pyramid} over the graph's bounds with its ways and roads, from a tile
+ * the size of the graph 5 zooms deep, by render thread count; pixels only, no PNGs.
+ * {@code -p backend=GL} renders offscreen with OpenGL instead, where a GL2 driver is present.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileBenchmark {
+
+    /** see {@link SyntheticOsm#source} */
+    @Param({"town:100"})
+    String source;
+
+    @Param({"JAVA2D"})
+    TileRenderer.Backend backend;
+
+    @Param({"1", "4"})
+    int threads;
+
+    GraphOSM osm;
+    TileRenderer renderer;
+    BBox b;
+    int minZoom;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        osm = SyntheticOsm.load(SyntheticOsm.source(source), false);
+        final Graph g = osm.getGraphHopperStorage();
+        GraphHopperGL.buildRoads(g, osm.getEncodingManager().fetchEdgeEncoders().get(0).getAverageSpeedEnc(),
+                new EdgeStore(g.getEdges()), osm);
+        b = g.getBounds();
+        minZoom = (int) Math.floor(Math.log(180 / Math.max(b.maxLon - b.minLon, b.maxLat - b.minLat)) / Math.log(2));
+        renderer = new TileRenderer(osm.ways, backend, TileRenderer.TILE, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        renderer.close();
+        SyntheticOsm.delete(osm);
+    }
+
+    @Benchmark
+    public int pyramid() throws InterruptedException {
+        return renderer.pyramid(b.minLon, b.minLat, b.maxLon, b.maxLat, minZoom, minZoom + 4, null).tiles;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TileBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,134 @@
+package netvr;
+
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.shapes.BBox;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Headless {@link TileRenderer} output for the bundled synthetic town (or the extract given in
+ * {@link GraphHopperGL} arguments): the graph's bounds draw roads, concurrent renders of one
+ * box agree, an empty box stays blank, and a pyramid writes the same pixels as a direct
+ * render of its tiles.  Also, white ways keep their color next to others.  backend=GL renders
+ * offscreen through JOGL instead of Java2D.
+ */
+public class TileRendererTest {
+    public static void main(String[] args) throws Exception {
+        TileRenderer.Backend backend = TileRenderer.Backend.JAVA2D;
+        for (String a : args)
+            if (a.startsWith("backend=")) backend = TileRenderer.Backend.valueOf(a.substring(8));
+        colors(backend);
+        GraphOSM osm = Arrays.stream(args).anyMatch(a -> a.startsWith("datareader.file=")) ?
+                (GraphOSM) new GraphOSM().init(GraphHopperGL.config(args)).importOrLoad() :
+                SyntheticOsm.load(SyntheticOsm.bundled(), false);
+        osm.waysLoaded().join();
+        Graph g = osm.getGraphHopperStorage();
+        GraphHopperGL.buildRoads(g, osm.getEncodingManager().fetchEdgeEncoders().get(0).getAverageSpeedEnc(),
+                new EdgeStore(g.getEdges()), osm);
+        BBox b = g.getBounds();
+        final int size = TileRenderer.TILE;
+
+        try (TileRenderer r = new TileRenderer(osm.ways, backend, size, 2)) {
+            final int[] a = new int[size * size];
+            final int drawn = r.render(b.minLon, b.minLat, b.maxLon, b.maxLat, a);
+            final long painted = Arrays.stream(a).filter(p -> p != TileRenderer.BACKGROUND).count();
+            System.out.printf("bounds: %d vis drawn, %d of %d pixels painted%n", drawn, painted, a.length);
+            check(drawn > 0 && painted > a.length / 100, "bounds drew nothing");
+
+            //both surfaces at once
+            final int[] c1 = new int[size * size], c2 = new int[size * size];
+            CompletableFuture<Integer> f1 = CompletableFuture.supplyAsync(() -> render(r, b, c1)),
+                    f2 = CompletableFuture.supplyAsync(() -> render(r, b, c2));
+            check(f1.join() == drawn && f2.join() == drawn, "concurrent renders drew other vis");
+            check(Arrays.equals(a, c1) && Arrays.equals(a, c2), "concurrent renders differ");
+
+            final int[] empty = new int[size * size];
+            check(r.render(10, 10, 10.01, 10.01, empty) == 0, "vis far from the graph");
+            check(Arrays.stream(empty).allMatch(p -> p == TileRenderer.BACKGROUND), "empty box painted");
+
+            //zooms from a tile about the size of the town
+            final int z0 = (int) Math.floor(Math.log(180 / (b.maxLon - b.minLon)) / Math.log(2));
+            final File dir = Files.createTempDirectory("netvr-pyramid").toFile();
+            final TileRenderer.Stats st = r.pyramid(b.minLon, b.minLat, b.maxLon, b.maxLat, z0, z0 + 3, dir);
+            System.out.printf("pyramid: %d tiles, %d empty, %.1f tiles/s%n", st.tiles, st.empty, st.tilesPerSecond());
+            int files = 0;
+            BufferedImage sample = null;
+            File sampleFile = null;
+            for (File f : (Iterable<File>) Files.walk(dir.toPath()).map(Path::toFile).filter(File::isFile)::iterator) {
+                final BufferedImage i = ImageIO.read(f);
+                check(i.getWidth() == size && i.getHeight() == size, f + " size");
+                files++;
+                sample = i;
+                sampleFile = f;
+            }
+            check(files == st.tiles - st.empty && files > 0, files + " tiles written");
+
+            //z/x/y.png against a direct render
+            final String[] zxy = dir.toPath().relativize(sampleFile.toPath()).toString().replace(".png", "").split("[/\\\\]");
+            final int z = Integer.parseInt(zxy[0]), x = Integer.parseInt(zxy[1]), y = Integer.parseInt(zxy[2]);
+            final double deg = 180.0 / (1 << z), w = x * deg - 180, n = 90 - y * deg;
+            r.render(w, n - deg, w + deg, n, a);
+            check(Arrays.equals(a, sample.getRGB(0, 0, size, size, null, 0, size)), "tile " + z + "/" + x + "/" + y + " differs");
+            Files.walk(dir.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        osm.close();
+        System.out.println("ok");
+    }
+
+    /** vertical edges in 0,0 - 1,1, alternately white and red: no red where the white ones are */
+    static void colors(TileRenderer.Backend backend) throws InterruptedException {
+        final int n = 8, size = TileRenderer.TILE;
+        final EdgeStore s = new EdgeStore(n);
+        final VisIndex index = new VisIndex();
+        final List<Vis> vv = new ArrayList<>();
+        final float[] b = new float[n * 4], tmp = new float[4];
+        for (int e = 0; e < n; e++) {
+            final double x = (e + 0.5) / n;
+            s.set(e, 0.1, x, 0.9, x);
+            s.rgb(e, e % 2 == 0 ? 0xffffff : 0xff0000);
+            vv.add(new EdgeVis(s, e));
+            vv.get(e).bounds(tmp);
+            System.arraycopy(tmp, 0, b, e * 4, 4);
+        }
+        index.add(vv, b);
+        final int[] a = new int[size * size];
+        try (TileRenderer r = new TileRenderer(index, backend, size, 1)) {
+            check(r.render(0, 0, 1, 1, a) == n, "edges not drawn");
+        }
+        int red = 0;
+        for (int e = 0; e < n; e++) {
+            final int col = (int) ((e + 0.5) / n * size);
+            for (int row = size / 4; row < size * 3 / 4; row++)
+                for (int dx = -1; dx <= 1; dx++) {
+                    final int p = a[row * size + col + dx];
+                    if ((p >> 16 & 0xff) > 200 && (p >> 8 & 0xff) < 100) {
+                        check(e % 2 == 1, "white edge " + e + " drawn red");
+                        red++;
+                    }
+                }
+        }
+        check(red > 0, "red edges not drawn");
+    }
+
+    static int render(TileRenderer r, BBox b, int[] argb) {
+        try {
+            return r.render(b.minLon, b.minLat, b.maxLon, b.maxLat, argb);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
@@ -0,0 +1,156 @@
+package netvr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link VisIndex} under concurrent writers and readers: writer threads stream batches, prebuilt
+ * parts and packs while reader threads query at 60 fps.  Every frame's {@link VisIndex.Snapshot}
+ * must hold whole batches only, each item once, never fewer items than the reader's previous
+ * frame, and answer a viewport query exactly as a scan of its items.  Reports the longest
+ * viewport query.  Takes the number of batches per writer (default 400).
+ */
+public class VisIndexStressTest {
+    static final int WRITERS = 3, READERS = 2, BATCH = 256;
+    static final long FRAME = 1_000_000_000L / 60;
+    /** ms between a writer's batches, as when streaming from disk */
+    static final int PACE = 5;
+
+    public static void main(String[] args) throws Exception {
+        final int batches = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        final int total = WRITERS * batches * BATCH;
+        final EdgeStore store = new EdgeStore(total);
+        final VisIndex index = new VisIndex();
+        final AtomicReference<Throwable> failed = new AtomicReference<>();
+
+        final Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread(() -> {
+                final Random r = new Random(writer);
+                final float[] tmp = new float[4];
+                try {
+                    for (int k = 0; k < batches && failed.get() == null; k++) {
+                        //rows are written before the batch is published
+                        final int base = (writer * batches + k) * BATCH;
+                        final List<Vis> vv = new ArrayList<>(BATCH);
+                        final float[] b = new float[BATCH * 4];
+                        for (int i = 0; i < BATCH; i++) {
+                            final double lat = r.nextDouble(), lon = r.nextDouble();
+                            store.set(base + i, lat, lon, lat + r.nextDouble() * 0.01, lon + r.nextDouble() * 0.01);
+                            final EdgeVis v = new EdgeVis(store, base + i);
+                            v.bounds(tmp);
+                            System.arraycopy(tmp, 0, b, i * 4, 4);
+                            vv.add(v);
+                        }
+                        if (writer == 1 && k % 2 == 0)
+                            index.add(PackedIndex.build(vv, b));
+                        else
+                            index.add(vv, b);
+                        //two writers pack, sometimes at once
+                        if (writer != 1 && k % 16 == 15)
+                            index.pack();
+                        Thread.sleep(PACE);
+                    }
+                } catch (Throwable t) {
+                    failed.compareAndSet(null, t);
+                }
+            }, "writer-" + w);
+        }
+
+        final long[] worst = new long[READERS];
+        final int[] frames = new int[READERS], late = new int[READERS];
+        final Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            final int reader = t;
+            readers[t] = new Thread(() -> {
+                final Random r = new Random(100 + reader);
+                final BitSet seen = new BitSet(total);
+                final int[] perBatch = new int[total / BATCH];
+                final float[] b = new float[4];
+                int last = 0;
+                long next = System.nanoTime();
+                try {
+                    boolean writing = true;
+                    while (writing && failed.get() == null) {
+                        writing = Arrays.stream(writers).anyMatch(Thread::isAlive);
+                        final VisIndex.Snapshot s = index.snapshot();
+                        final float x = r.nextFloat() * 0.8f, y = r.nextFloat() * 0.8f;
+                        final int[] n = {0};
+                        final long start = System.nanoTime();
+                        s.query(x, y, x + 0.2f, y + 0.2f, null, v -> n[0]++);
+                        final long took = System.nanoTime() - start;
+                        worst[reader] = Math.max(worst[reader], took);
+                        if (took > FRAME)
+                            late[reader]++;
+
+                        seen.clear();
+                        Arrays.fill(perBatch, 0);
+                        s.query(-1, -1, 2, 2, null, v -> {
+                            final int id = ((EdgeVis) v).ids[0];
+                            check(!seen.get(id), "edge " + id + " seen twice");
+                            seen.set(id);
+                            perBatch[id / BATCH]++;
+                        });
+                        check(seen.cardinality() == s.size(), "snapshot of " + s.size() + " items answered " + seen.cardinality());
+                        check(s.size() >= last, "snapshot shrank from " + last + " to " + s.size());
+                        last = s.size();
+                        for (int k = 0; k < perBatch.length; k++)
+                            check(perBatch[k] == 0 || perBatch[k] == BATCH, "batch " + k + " partly visible: " + perBatch[k]);
+                        int scanned = 0;
+                        for (int id = seen.nextSetBit(0); id >= 0; id = seen.nextSetBit(id + 1)) {
+                            store.bounds(id, b);
+                            if (b[0] <= x + 0.2f && b[2] >= x && b[1] <= y + 0.2f && b[3] >= y)
+                                scanned++;
+                        }
+                        check(n[0] == scanned, "viewport answered " + n[0] + " items, " + scanned + " overlap it");
+                        frames[reader]++;
+
+                        next = Math.max(next + FRAME, System.nanoTime());
+                        final long wait = next - System.nanoTime();
+                        if (wait > 0)
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    }
+                } catch (Throwable e) {
+                    failed.compareAndSet(null, e);
+                }
+            }, "reader-" + t);
+        }
+
+        final long start = System.nanoTime();
+        for (Thread t : writers)
+            t.start();
+        for (Thread t : readers)
+            t.start();
+        for (Thread t : writers)
+            t.join();
+        for (Thread t : readers)
+            t.join();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        if (failed.get() != null)
+            throw new AssertionError("failed concurrently", failed.get());
+
+        index.pack();
+        final BitSet all = new BitSet(total);
+        index.query(-1, -1, 2, 2, null, v -> all.set(((EdgeVis) v).ids[0]));
+        check(index.size() == total && all.cardinality() == total, index.size() + " items indexed, " + all.cardinality() + " found of " + total);
+        //packs merge parts of similar size
+        check(index.parts() <= 64 - Long.numberOfLeadingZeros(total), index.parts() + " parts left for " + total + " items");
+        for (int t = 0; t < READERS; t++) {
+            check(frames[t] > 0, "reader " + t + " drew no frame");
+            System.out.printf("reader %d: %d frames, longest viewport query %.2fms, %d over a frame%n",
+                    t, frames[t], worst[t] / 1e6, late[t]);
+        }
+        System.out.printf("%d items in %d parts added by %d writers in %.2fs%n", total, index.parts(), WRITERS, seconds);
+        System.out.println("ok");
+    }
+
+    static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError(what);
+    }
+}
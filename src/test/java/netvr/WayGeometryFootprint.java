@@ -0,0 +1,55 @@
+package netvr;
+
+import javax.vecmath.Vector3f;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Heap used by 10M way vertices, as one ArrayList&lt;Vector3f&gt; per way versus the packed
+ * {@link WayGeometry}.  Run with e.g. -Xmx4g.
+ */
+public class WayGeometryFootprint {
+    static final int VERTICES = 10_000_000, PER_WAY = 10;
+
+    public static void main(String[] args) {
+        int vertices = args.length > 0 ? Integer.parseInt(args[0]) : VERTICES;
+        int ways = vertices / PER_WAY;
+
+        long base = used();
+        List<List<Vector3f>> lists = new ArrayList<>(ways);
+        Random r = new Random(1);
+        for (int w = 0; w < ways; w++) {
+            List<Vector3f> p = new ArrayList<>(PER_WAY);
+            for (int i = 0; i < PER_WAY; i++)
+                p.add(new Vector3f(r.nextFloat(), r.nextFloat(), 0));
+            lists.add(p);
+        }
+        long old = used() - base;
+        report("List<Vector3f>", old, vertices);
+        lists = null;
+
+        base = used();
+        WayGeometry g = new WayGeometry(vertices, ways);
+        int[] xy = new int[PER_WAY * 2];
+        r = new Random(1);
+        for (int w = 0; w < ways; w++) {
+            for (int i = 0; i < xy.length; i++)
+                xy[i] = Quantized.fix(r.nextFloat());
+            g.add(xy, PER_WAY);
+        }
+        long packed = used() - base;
+        report("WayGeometry", packed, vertices);
+        System.out.printf("ratio %.1fx (%d ways)%n", old / (double) packed, g.size());
+    }
+
+    static void report(String what, long bytes, int vertices) {
+        System.out.printf("%-16s %,14d bytes  %6.1f bytes/vertex%n", what, bytes, bytes / (double) vertices);
+    }
+
+    static long used() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
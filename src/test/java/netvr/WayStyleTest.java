@@ -0,0 +1,37 @@
+package netvr;
+
+import com.graphhopper.reader.ReaderWay;
+
+/**
+ * {@link WayStyle#classify} picks the first matching key, an exact value before {@code *},
+ * and {@code *} does not match {@code no}.
+ */
+public class WayStyleTest {
+
+    public static void main(String[] args) {
+        final WayStyle d = WayStyle.defaults();
+        check(d, "building", "building", "yes");
+        check(d, "building", "building", "house");
+        check(d, null, "building", "no");
+        check(d, "landuse", "building", "no", "landuse", "grass");
+        check(d, "wood", "landuse", "forest");
+        check(d, "landuse", "landuse", "residential");
+        check(d, null, "highway", "primary");
+
+        final WayStyle s = WayStyle.parse("building=no ruin #808080 2\nbuilding=* building #b4a48c 3 area\n");
+        check(s, "ruin", "building", "no");
+        check(s, "building", "building", "yes");
+        System.out.println("ok");
+    }
+
+    /** @param tags key, value, ... */
+    static void check(WayStyle style, String expected, String... tags) {
+        final ReaderWay w = new ReaderWay(1);
+        for (int i = 0; i < tags.length; i += 2)
+            w.setTag(tags[i], tags[i + 1]);
+        final int s = style.classify(w);
+        final String got = s == WayStyle.NONE ? null : style.name(s);
+        if (expected == null ? got != null : !expected.equals(got))
+            throw new AssertionError(String.join(",", tags) + ": " + got + ", expected " + expected);
+    }
+}